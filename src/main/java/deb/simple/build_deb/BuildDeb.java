@@ -8,10 +8,11 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.compress.archivers.ar.ArArchiveEntry;
 import org.apache.commons.compress.archivers.ar.ArArchiveOutputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
-import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.springframework.util.Assert;
 import org.springframework.util.CollectionUtils;
 import org.springframework.util.StringUtils;
@@ -26,10 +27,13 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.zip.GZIPInputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
 import java.util.zip.GZIPOutputStream;
 
 @Data
@@ -37,6 +41,11 @@ import java.util.zip.GZIPOutputStream;
 @Slf4j
 public class BuildDeb {
     Path current = Path.of(System.getProperty("user.dir"));
+    /**
+     * receives the number of file content bytes packed since the previous call
+     */
+    LongConsumer progressListener = ignored -> {
+    };
 
     @SneakyThrows
     public byte[] buildDeb(DebPackageConfig config, Path outDir) {
@@ -53,39 +62,64 @@ public class BuildDeb {
 
     @SneakyThrows
     public byte[] buildDebToArchive(DebPackageConfig config) {
-        byte[] dataTarGz = createTarGz(
+        var dataTarGz = new ByteArrayOutputStream();
+        byte[] head = buildDebStreaming(config, dataTarGz);
+
+        var out = new ByteArrayOutputStream(head.length + dataTarGz.size());
+        out.write(head);
+        dataTarGz.writeTo(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * builds the .deb without holding data.tar.gz in memory
+     * <p>
+     * an ar member header carries the size of the member, so the bytes in front of data.tar.gz are only known once it
+     * is complete. data.tar.gz (and its ar padding) is written to {@code dataOut} while it is compressed, and the
+     * bytes that go in front of it are returned: the .deb is the returned bytes followed by what went to
+     * {@code dataOut}
+     *
+     * @param dataOut receives the tail of the .deb, is not closed
+     * @return the head of the .deb
+     */
+    @SneakyThrows
+    public byte[] buildDebStreaming(DebPackageConfig config, OutputStream dataOut) {
+        var dataTarGz = new CountingOutputStream(CloseShieldOutputStream.wrap(dataOut));
+        long installedSize = createTarGz(
                 Optional.ofNullable(config.getFiles().getDataFiles()).orElseGet(List::of),
-                List.of()
+                List.of(),
+                dataTarGz
         );
+        long dataSize = dataTarGz.getByteCount();
+        if (dataSize % 2 != 0)
+            dataOut.write('\n');
+        config.getControl().setInstalledSize((int) (installedSize / 1024));
 
-        int installedSize = 0;
-        try (var tis = new TarArchiveInputStream(new GZIPInputStream(new ByteArrayInputStream(dataTarGz)))) {
-            TarArchiveEntry entry;
-            while ((entry = tis.getNextEntry()) != null) {
-                if (entry.isFile())
-                    installedSize += (int) entry.getRealSize();
-            }
-        }
-        config.getControl().setInstalledSize(installedSize / 1024);
-
-        byte[] controlTarGz = createTarGz(
+        var controlTarGz = new ByteArrayOutputStream();
+        createTarGz(
                 Optional.ofNullable(config.getFiles().getControlFiles()).orElseGet(List::of),
                 List.of(new DebPackageConfig.TarFileSpec.TextTarFileSpec()
                         .setContent(config.getControl().render(config.getMeta()))
                         .setPath("control")
-                        .setMode(null))
+                        .setMode(null)),
+                controlTarGz
         );
 
-        return createArArchive(List.of(
+        var head = new ByteArrayOutputStream();
+        createArArchive(List.of(
                 Map.entry("debian-binary", "2.0\n".getBytes()),
-                Map.entry("control.tar.gz", controlTarGz),
-                Map.entry("data.tar.gz", dataTarGz)
-        ));
+                Map.entry("control.tar.gz", controlTarGz.toByteArray())
+        ), head);
+        head.write(arEntryHeader(new ArArchiveEntry("data.tar.gz", dataSize)));
+        return head.toByteArray();
     }
 
+    /**
+     * @return the installed size: the sum of the sizes of all regular files
+     */
     @SneakyThrows
-    private byte[] createTarGz(List<DebPackageConfig.TarFileSpec> files, List<DebPackageConfig.TarFileSpec> extra) {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private long createTarGz(List<DebPackageConfig.TarFileSpec> files, List<DebPackageConfig.TarFileSpec> extra, OutputStream out) {
+        var installedSize = new AtomicLong();
         try (TarArchiveOutputStream tarOut = new TarArchiveOutputStream(new GZIPOutputStream(out))) {
             tarOut.setLongFileMode(TarArchiveOutputStream.LONGFILE_GNU);
 
@@ -135,6 +169,10 @@ public class BuildDeb {
                                 if (content != null)
                                     tarOut.write(content);
                                 tarOut.closeArchiveEntry();
+                                if (content != null) {
+                                    installedSize.addAndGet(content.length);
+                                    progressListener.accept(content.length);
+                                }
                             } catch (IOException e) {
                                 throw new RuntimeException(e);
                             }
@@ -164,9 +202,12 @@ public class BuildDeb {
                 tarOut.putArchiveEntry(entry);
                 tarOut.write(content);
                 tarOut.closeArchiveEntry();
+                if (entry.isFile())
+                    installedSize.addAndGet(content.length);
+                progressListener.accept(content.length);
             }
         }
-        return out.toByteArray();
+        return installedSize.get();
     }
 
     private byte[] downloadUrlTarFile(DebPackageConfig.TarFileSpec.UrlTarFileSpec fs) {
@@ -228,9 +269,8 @@ public class BuildDeb {
      * order matters to debian packaging
      */
     @SneakyThrows
-    private byte[] createArArchive(List<Map.Entry<String, byte[]>> entries) {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        try (ArArchiveOutputStream arOut = new ArArchiveOutputStream(out)) {
+    private void createArArchive(List<Map.Entry<String, byte[]>> entries, OutputStream out) {
+        try (ArArchiveOutputStream arOut = new ArArchiveOutputStream(CloseShieldOutputStream.wrap(out))) {
             for (Map.Entry<String, byte[]> entry : entries) {
                 String name = entry.getKey();
                 byte[] content = entry.getValue();
@@ -240,7 +280,20 @@ public class BuildDeb {
                 arOut.closeArchiveEntry();
             }
         }
-        return out.toByteArray();
+    }
+
+    /**
+     * the header {@link ArArchiveOutputStream} writes for an entry, for entries whose content is written elsewhere
+     */
+    private byte[] arEntryHeader(ArArchiveEntry entry) {
+        return String.format("%-16s%-12d%-6d%-6d%-8s%-10d`\n",
+                entry.getName(),
+                entry.getLastModified(),
+                entry.getUserId(),
+                entry.getGroupId(),
+                Integer.toString(entry.getMode(), 8),
+                entry.getLength()
+        ).getBytes(StandardCharsets.US_ASCII);
     }
 
 }
@@ -0,0 +1,200 @@
+package deb.simple.build_deb;
+
+import lombok.Data;
+import lombok.NonNull;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * non-blocking facade for {@link BuildDeb} and {@link BuildIndex}
+ * <p>
+ * every build runs on {@link #executor} (a new virtual thread per build unless one is supplied) and completes
+ * with a {@link BuildResult}. cancelling the returned future interrupts the build, which then stops at the next
+ * packed file or phase boundary
+ */
+@Slf4j
+@Data
+@Accessors(chain = true)
+public class BuildDebAsync {
+    private static final ThreadFactory VIRTUAL_THREADS = Thread.ofVirtual().name("build-deb-", 0).factory();
+
+    Path current = Path.of(System.getProperty("user.dir"));
+    @NonNull
+    Executor executor = task -> VIRTUAL_THREADS.newThread(task).start();
+    @NonNull
+    IndexFormat indexFormat = IndexFormat.json;
+
+    /**
+     * like {@link BuildDeb#buildDeb(DebPackageConfig, Path)}, optionally followed by
+     * {@link BuildIndex#buildDebIndex(byte[], DebPackageConfig, Path)}
+     *
+     * @param progress receives the total number of bytes processed so far (may be null)
+     */
+    public CompletableFuture<BuildResult> buildDeb(DebPackageConfig config, Path outDir, boolean index, LongConsumer progress) {
+        return submit(config, outDir, index, progress);
+    }
+
+    /**
+     * like {@link BuildDeb#buildDebToArchive(DebPackageConfig)}, the archive is kept in {@link BuildResult#getDeb()}
+     *
+     * @param progress receives the total number of bytes processed so far (may be null)
+     */
+    public CompletableFuture<BuildResult> buildDebToArchive(DebPackageConfig config, LongConsumer progress) {
+        return submit(config, null, false, progress);
+    }
+
+    CompletableFuture<BuildResult> submit(DebPackageConfig config, Path outDir, boolean index, LongConsumer progress) {
+        var future = new CompletableFuture<BuildResult>();
+        var worker = new Worker();
+        future.whenComplete((ignored, throwable) -> {
+            if (future.isCancelled())
+                worker.interrupt();
+        });
+
+        long submitted = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                if (future.isDone())
+                    return;
+                worker.attach();
+                try {
+                    future.complete(run(config, outDir, index, progress, submitted, future));
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                } finally {
+                    worker.detach();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    BuildResult run(DebPackageConfig config,
+                    Path outDir,
+                    boolean index,
+                    LongConsumer progress,
+                    long submitted,
+                    CompletableFuture<BuildResult> future) throws Exception {
+        var timings = new Timings();
+        var result = new BuildResult().setTimings(timings);
+        long start = System.nanoTime();
+        timings.setQueued(Duration.ofNanos(start - submitted));
+
+        var processed = new AtomicLong();
+        var buildDeb = new BuildDeb()
+                .setCurrent(current)
+                .setProgressListener(bytes -> {
+                    checkCancelled(future);
+                    long total = processed.addAndGet(bytes);
+                    if (progress != null)
+                        progress.accept(total);
+                });
+
+        byte[] deb = buildDeb.buildDebToArchive(config);
+        long built = System.nanoTime();
+        timings.setBuild(Duration.ofNanos(built - start));
+        checkCancelled(future);
+
+        var buildIndex = new BuildIndex().setFormat(indexFormat);
+        var meta = buildIndex.buildDebIndexToDto(deb, config);
+        result.setMeta(meta);
+        long indexed = System.nanoTime();
+        timings.setIndex(Duration.ofNanos(indexed - built));
+        checkCancelled(future);
+
+        if (outDir == null) {
+            result.setDeb(deb);
+        } else {
+            Files.createDirectories(outDir);
+            Path debLocation = outDir.resolve(config.getMeta().getDebFilename());
+            Files.write(debLocation, deb);
+            result.setDebLocation(debLocation);
+            if (index) {
+                Path indexLocation = outDir.resolve(buildIndex.indexFilename(config));
+                Files.write(indexLocation, buildIndex.buildDebIndexToBytes(meta));
+                result.setIndexLocation(indexLocation);
+            }
+            log.info("Created .deb package: {}", debLocation);
+        }
+        long written = System.nanoTime();
+        timings.setWrite(Duration.ofNanos(written - indexed));
+        timings.setTotal(Duration.ofNanos(written - submitted));
+        return result;
+    }
+
+    static void checkCancelled(CompletableFuture<?> future) {
+        if (future.isCancelled() || Thread.currentThread().isInterrupted())
+            throw new CancellationException("build cancelled");
+    }
+
+    /**
+     * tracks the thread running a build, so cancellation never interrupts a thread that moved on to other work
+     */
+    static class Worker {
+        Thread thread;
+
+        synchronized void attach() {
+            thread = Thread.currentThread();
+        }
+
+        synchronized void detach() {
+            thread = null;
+            // clear an interrupt delivered by cancellation before the thread goes back to the executor
+            //noinspection ResultOfMethodCallIgnored
+            Thread.interrupted();
+        }
+
+        synchronized void interrupt() {
+            if (thread != null)
+                thread.interrupt();
+        }
+    }
+
+    @Data
+    @Accessors(chain = true)
+    public static class BuildResult {
+        /**
+         * where the .deb was written, null when built in memory
+         */
+        Path debLocation;
+        /**
+         * where the index was written, null unless requested
+         */
+        Path indexLocation;
+        /**
+         * the archive, only kept when built in memory
+         */
+        byte[] deb;
+        DebPackageMeta meta;
+        Timings timings;
+    }
+
+    @Data
+    @Accessors(chain = true)
+    public static class Timings {
+        /**
+         * time spent waiting for the executor
+         */
+        Duration queued;
+        Duration build;
+        Duration index;
+        Duration write;
+        /**
+         * from submission to completion
+         */
+        Duration total;
+    }
+}
@@ -1,31 +1,62 @@
 package deb.simple.build_deb;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
 import lombok.SneakyThrows;
+import lombok.experimental.Accessors;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
 
 public class BuildIndex {
-    ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    /**
+     * how index files are encoded
+     */
+    @Getter
+    @Setter
+    @Accessors(chain = true)
+    @NonNull
+    IndexFormat format = IndexFormat.json;
 
     @SuppressWarnings("UnusedReturnValue")
     @SneakyThrows
     public byte[] buildDebIndex(byte[] deb, DebPackageConfig config, Path outDir) {
         byte[] index = buildDebIndexToBytes(deb, config);
-        Files.write(outDir.resolve(config.getMeta().getIndexFilename()), index);
+        Files.write(outDir.resolve(indexFilename(config)), index);
         return index;
     }
 
-    @SneakyThrows
+    public String indexFilename(DebPackageConfig config) {
+        return format.indexFilename(config.getMeta());
+    }
+
     public byte[] buildDebIndexToBytes(byte[] deb, DebPackageConfig config) {
-        return objectMapper.writeValueAsBytes(buildDebIndexToDto(deb, config));
+        return buildDebIndexToBytes(buildDebIndexToDto(deb, config));
+    }
+
+    @SneakyThrows
+    public byte[] buildDebIndexToBytes(DebPackageMeta meta) {
+        return format.getObjectMapper().writeValueAsBytes(meta);
     }
 
     public DebPackageMeta buildDebIndexToDto(byte[] deb, DebPackageConfig config) {
+        return buildDebIndexToDto(FileIntegrity.of(deb, null), config);
+    }
+
+    /**
+     * the index only keeps what {@link BuildPackagesIndex#metaToIndex(DebPackageMeta)} reads, the files of the config
+     * (including inline content) are left out
+     *
+     * @param hashes integrity of the .deb, e.g. from an {@link IntegrityOutputStream} when it was never in memory
+     */
+    public DebPackageMeta buildDebIndexToDto(FileIntegrity hashes, DebPackageConfig config) {
         return new DebPackageMeta()
-                .setDebPackageConfig(config)
-                .setHashes(FileIntegrity.of(deb, null))
-                .setSize(deb.length);
+                .setSchemaVersion(DebPackageMeta.SLIM_SCHEMA_VERSION)
+                .setDebPackageConfig(new DebPackageConfig()
+                        .setMeta(config.getMeta())
+                        .setControl(config.getControl()))
+                .setHashes(hashes)
+                .setSize(hashes.getSize());
     }
 }
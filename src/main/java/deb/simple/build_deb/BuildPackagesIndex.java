@@ -7,9 +7,11 @@ import java.util.stream.Collectors;
 
 public class BuildPackagesIndex {
     final String poolPath;
+    final StanzaEncoder stanzaEncoder;
 
     public BuildPackagesIndex(String poolPath) {
         this.poolPath = StringUtils.strip(poolPath, "/");
+        this.stanzaEncoder = new StanzaEncoder(this.poolPath);
     }
 
     public String buildPackagesIndex(List<DebPackageMeta> debPackageMetaList) {
@@ -25,20 +27,26 @@ public class BuildPackagesIndex {
 
         var sb = new StringBuilder();
         sb.append("Package: ").append(meta.getName()).append("\n");
+        optional(sb, "Source: ", control.getSource());
         sb.append("Version: ").append(meta.getVersion()).append("\n");
         sb.append("Architecture: ").append(meta.getArch()).append("\n");
+        optional(sb, "Multi-Arch: ", control.getMultiArch());
+        optional(sb, "Essential: ", control.getEssential());
         sb.append("Maintainer: ").append(control.getMaintainer()).append("\n");
 
+        optional(sb, "Pre-Depends: ", control.getPreDepends());
         if (!control.getDepends().isBlank())
             sb.append("Depends: ").append(control.getDepends()).append("\n");
         if (!control.getConflicts().isBlank())
             sb.append("Conflicts: ").append(control.getConflicts()).append("\n");
         if (!control.getRecommends().isBlank())
             sb.append("Recommends: ").append(control.getRecommends()).append("\n");
+        optional(sb, "Suggests: ", control.getSuggests());
+        optional(sb, "Breaks: ", control.getBreaks());
+        optional(sb, "Replaces: ", control.getReplaces());
+        optional(sb, "Provides: ", control.getProvides());
 
-        sb.append("Filename: ")
-                .append("pool/").append(poolPath).append("/")
-                .append(meta.getDebFilename()).append("\n");
+        sb.append("Filename: ").append(filename(debPackageMeta)).append("\n");
         if (debPackageMeta.getDebPackageConfig().getControl().getInstalledSize() != null)
             sb.append("Installed-Size: ").append(debPackageMeta.getDebPackageConfig().getControl().getInstalledSize()).append("\n");
         sb.append("Size: ").append(debPackageMeta.getSize()).append("\n");
@@ -55,4 +63,43 @@ public class BuildPackagesIndex {
 
         return sb.toString();
     }
+
+    static void optional(StringBuilder sb, String name, String value) {
+        if (value != null)
+            sb.append(name).append(value).append("\n");
+    }
+
+    /**
+     * same as {@link #metaToIndex(DebPackageMeta)}, encoded as UTF-8 without intermediate strings (not thread safe)
+     */
+    public byte[] metaToStanza(DebPackageMeta debPackageMeta) {
+        return stanzaEncoder.encode(debPackageMeta).toByteArray();
+    }
+
+    /**
+     * @return the path of the .deb relative to the repository root
+     */
+    public String filename(DebPackageMeta debPackageMeta) {
+        if (debPackageMeta.getFilename() != null)
+            return debPackageMeta.getFilename();
+        return "pool/" + poolPath + "/" + debPackageMeta.getDebPackageConfig().getMeta().getDebFilename();
+    }
+
+    /**
+     * the debian pool layout, shared by all codenames: {@code <component>/<prefix>/<name>}, where the prefix is the
+     * first letter of the package name, or the first four for {@code lib*} packages
+     *
+     * @return directory relative to the pool
+     */
+    public static String sharedPoolDirectory(String component, String name) {
+        var prefix = name.startsWith("lib") && name.length() > 3 ? name.substring(0, 4) : name.substring(0, 1);
+        return component + "/" + prefix + "/" + name;
+    }
+
+    /**
+     * @return whether the directory name is one of the prefixes of {@link #sharedPoolDirectory(String, String)}
+     */
+    public static boolean isSharedPoolPrefix(String directory) {
+        return directory.length() == 1 || directory.length() == 4 && directory.startsWith("lib");
+    }
 }
@@ -4,16 +4,17 @@ import deb.simple.DebArch;
 import lombok.Data;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
-import lombok.SneakyThrows;
 import lombok.experimental.Accessors;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.util.Assert;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.*;
-import java.util.stream.Collectors;
-import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
 
 /**
  * a "repo" is:
@@ -43,15 +44,75 @@ public class BuildRepository {
      * returns all the files you need to make the repo
      *
      * @param repo information about the repo
-     * @return all files needed for apt to update from repo
+     * @return all files needed for apt to update from repo, sorted by path
      */
-    public Map<String, FileIntegrity> buildRepo(Repo repo) {
-        return repo.codenameSectionMap().entrySet().stream()
-                .flatMap(e ->
-                        e.getValue().packagesFiles().entrySet().stream()
-                                .map(ee ->
-                                        Map.entry(e.getValue().getCodename() + "/" + ee.getKey(), ee.getValue())))
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    public SortedMap<String, FileIntegrity> buildRepo(Repo repo) {
+        var files = new TreeMap<String, FileIntegrity>();
+        repo.codenameSectionMap().values().forEach(codenameSection -> files.putAll(codenameFiles(codenameSection)));
+        return files;
+    }
+
+    /**
+     * adds the packages of each codename, then builds them like {@link #buildRepo(RepoBuilder, Collection, DebRepoSigning.SigningKey, Executor)}
+     *
+     * @param codenameMetas the packages of each codename to build
+     */
+    public SortedMap<String, FileIntegrity> buildRepo(RepoBuilder repoBuilder,
+                                                      Map<String, ? extends Collection<DebPackageMeta>> codenameMetas,
+                                                      DebRepoSigning.SigningKey signingKey,
+                                                      Executor executor) {
+        codenameMetas.forEach((codename, metas) -> metas.forEach(meta -> repoBuilder.addIndex(codename, meta)));
+        return buildRepo(repoBuilder, codenameMetas.keySet(), signingKey, executor);
+    }
+
+    /**
+     * builds, and signs if a key is given, every codename concurrently on the executor, then merges their files
+     * <p>
+     * a codename only depends on its own packages, so its Packages files, Release and signatures are made by a
+     * single task. the result does not depend on the order the tasks finish in.
+     *
+     * @param repoBuilder the packages were already added to, e.g. by {@link BuildRepositoryIO#readMetas(java.util.function.BiConsumer)}
+     * @param codenames   the codenames to build
+     * @param signingKey  private and public key to sign the Release files with, or null to leave them unsigned
+     * @return all files needed for apt to update from repo, sorted by path
+     */
+    public SortedMap<String, FileIntegrity> buildRepo(RepoBuilder repoBuilder,
+                                                      Collection<String> codenames,
+                                                      DebRepoSigning.SigningKey signingKey,
+                                                      Executor executor) {
+        repoBuilder.signedBy(signingKey == null ? null : signingKey.getPublicKey());
+        var futures = codenames.stream()
+                .map(codename -> CompletableFuture.supplyAsync(() -> {
+                    var builder = repoBuilder.buildCodeName(codename);
+                    builder.build();
+                    var files = codenameFiles(builder.codenameSection);
+                    if (signingKey != null)
+                        files.putAll(signRepo(files, signingKey.getPrivateKey(), signingKey.getPublicKey()));
+                    return files;
+                }, executor))
+                .toList();
+        var files = new TreeMap<String, FileIntegrity>();
+        futures.forEach(future -> files.putAll(future.join()));
+        return files;
+    }
+
+    /**
+     * in incremental builds, files that were already published are left out (all files, if the codename did not
+     * change at all) and the {@link CodenameState} is added
+     */
+    static Map<String, FileIntegrity> codenameFiles(Repo.CodenameSection codenameSection) {
+        var files = new HashMap<String, FileIntegrity>();
+        if (codenameSection.isUnchanged())
+            return files;
+        codenameSection.packagesFiles().forEach((path, file) -> {
+            if (!codenameSection.unchangedFiles().contains(path))
+                files.put(codenameSection.getCodename() + "/" + path, file);
+        });
+        if (codenameSection.getState() != null) {
+            var statePath = codenameSection.getCodename() + "/" + CodenameState.FILENAME;
+            files.put(statePath, FileIntegrity.of(codenameSection.getState().toBytes(), statePath));
+        }
+        return files;
     }
 
     public Map<String, FileIntegrity> signRepo(Map<String, FileIntegrity> repoFiles, String key, String signingPubKey) {
@@ -153,14 +214,18 @@ public class BuildRepository {
     //     }
     // }
 
+    /**
+     * codenames may be built concurrently (see {@link #buildRepo(RepoBuilder, Map, DebRepoSigning.SigningKey, Executor)}),
+     * so its collections are concurrent
+     */
     @Data
     @Accessors(chain = true)
     public static class Repo {
-        Map<String, CodenameSection> codenameSectionMap;
+        Map<String, CodenameSection> codenameSectionMap = new ConcurrentHashMap<>();
 
         public Map<String, CodenameSection> codenameSectionMap() {
             if (codenameSectionMap == null) {
-                codenameSectionMap = new HashMap<>();
+                codenameSectionMap = new ConcurrentHashMap<>();
             }
             return codenameSectionMap;
         }
@@ -169,42 +234,79 @@ public class BuildRepository {
         @Accessors(chain = true)
         public static class CodenameSection {
             final String codename;
-            Set<DebArch> arches;
-            Set<String> components;
+            Set<DebArch> arches = ConcurrentHashMap.newKeySet();
+            Set<String> components = ConcurrentHashMap.newKeySet();
             Instant date;
-            Map<String, FileIntegrity> packagesFiles;
+            Map<String, FileIntegrity> packagesFiles = new ConcurrentHashMap<>();
+            /**
+             * Packages files of an incremental build that are the same as published, they are not written again
+             */
+            Set<String> unchangedFiles = ConcurrentHashMap.newKeySet();
+            /**
+             * set by incremental builds, and written with the codename
+             */
+            CodenameState state;
+            /**
+             * an incremental build found nothing to publish for the codename
+             */
+            boolean unchanged;
 
             Set<DebArch> arches() {
                 if (arches == null) {
-                    arches = new HashSet<>();
+                    arches = ConcurrentHashMap.newKeySet();
                 }
                 return arches;
             }
 
             Set<String> components() {
                 if (components == null) {
-                    components = new HashSet<>();
+                    components = ConcurrentHashMap.newKeySet();
                 }
                 return components;
             }
 
             Map<String, FileIntegrity> packagesFiles() {
                 if (packagesFiles == null) {
-                    packagesFiles = new HashMap<>();
+                    packagesFiles = new ConcurrentHashMap<>();
                 }
                 return packagesFiles;
             }
 
+            Set<String> unchangedFiles() {
+                if (unchangedFiles == null) {
+                    unchangedFiles = ConcurrentHashMap.newKeySet();
+                }
+                return unchangedFiles;
+            }
+
             public String getDefaultDescription() {
                 return "Repository for " + codename;
             }
         }
     }
 
+    /**
+     * collects packages by codename, component and arch. {@link #addIndex(String, DebPackageMeta)} (and
+     * {@link CodenameSectionBuilder#addIndex(DebPackageMeta)}) may be called from any thread, e.g. from the threads
+     * decoding index files, while other codenames are being built.
+     */
     public static class RepoBuilder {
         final DebRepoConfig config;
         final Repo repo = new Repo();
         final Instant now;
+        final Map<String, CodenameSectionBuilder> codenameSectionBuilders = new ConcurrentHashMap<>();
+        /**
+         * shared by the codenames, identical Packages files are only written once
+         */
+        final PackagesMemo packagesMemo = new PackagesMemo();
+        /**
+         * the {@link CodenameState} published by the previous incremental build of a codename, null for full builds
+         */
+        Function<String, Optional<CodenameState>> previousStates;
+        /**
+         * the public key the Release files are signed with, null if they are not signed
+         */
+        String signingPublicKey;
 
         RepoBuilder(DebRepoConfig config) {
             this(config, Instant.now());
@@ -219,61 +321,184 @@ public class BuildRepository {
             return repo;
         }
 
+        /**
+         * @return the builder of the codename, the same one for every call
+         */
         public CodenameSectionBuilder buildCodeName(String codename) {
-            Repo.CodenameSection codenameSection = repo.codenameSectionMap().computeIfAbsent(codename, Repo.CodenameSection::new);
-            codenameSection.setDate(now);
-            return new CodenameSectionBuilder(this, codenameSection);
+            return codenameSectionBuilders.computeIfAbsent(codename, ignored -> {
+                Repo.CodenameSection codenameSection = repo.codenameSectionMap().computeIfAbsent(codename, Repo.CodenameSection::new);
+                codenameSection.setDate(now);
+                return new CodenameSectionBuilder(this, codenameSection);
+            });
+        }
+
+        /**
+         * builds codenames incrementally: Packages files whose packages are the same as in the previous state of the
+         * codename are not rendered (nor written) again, and codenames without any change are not published
+         *
+         * @param previousStates reads the state of a codename, empty if it has none (the codename is built completely)
+         */
+        public RepoBuilder incremental(Function<String, Optional<CodenameState>> previousStates) {
+            this.previousStates = previousStates;
+            return this;
+        }
+
+        /**
+         * recorded in the {@link CodenameState}, so another key publishes every codename of an incremental build again
+         *
+         * @param publicKey the public key the Release files are signed with, null if they are not signed
+         */
+        public RepoBuilder signedBy(String publicKey) {
+            this.signingPublicKey = publicKey;
+            return this;
+        }
+
+        public RepoBuilder addIndex(String codename, DebPackageMeta meta) {
+            buildCodeName(codename).addIndex(meta);
+            return this;
+        }
+
+        /**
+         * @return the codenames packages were added to
+         */
+        public Set<String> codenames() {
+            return Collections.unmodifiableSet(codenameSectionBuilders.keySet());
         }
 
         @RequiredArgsConstructor
         public static class CodenameSectionBuilder {
+            /**
+             * the order packages are added in depends on thread scheduling, so each Packages file lists them sorted
+             */
+            static final Comparator<DebPackageMeta> STANZA_ORDER = Comparator
+                    .<DebPackageMeta, String>comparing(meta -> meta.getDebPackageConfig().getMeta().getName())
+                    .thenComparing(meta -> meta.getDebPackageConfig().getMeta().getVersion(), DebVersion.COMPARATOR)
+                    .thenComparing(DebPackageMeta::getFilename, Comparator.nullsFirst(Comparator.naturalOrder()));
+
             @NonNull
             final RepoBuilder repoBuilder;
             @NonNull
             final Repo.CodenameSection codenameSection;
-            final List<DebPackageMeta> debPackageMetaList = new ArrayList<>();
+            /**
+             * lock free, adding only contends with packages of the same component and arch
+             */
+            final Map<Bucket, Queue<DebPackageMeta>> buckets = new ConcurrentHashMap<>();
 
             public RepoBuilder build() {
                 var packagesFiles = codenameSection.packagesFiles();
 
                 var bpi = new BuildPackagesIndex(codenameSection.getCodename());
+                var previous = repoBuilder.previousStates == null
+                        ? Optional.<CodenameState>empty()
+                        : repoBuilder.previousStates.apply(codenameSection.getCodename());
+                var state = new CodenameState()
+                        .setOrigin(repoBuilder.config.getOrigin())
+                        .setLabel(repoBuilder.config.getLabel())
+                        .setSigningKey(repoBuilder.signingPublicKey == null ? null : DigestUtils.sha256Hex(repoBuilder.signingPublicKey));
+                boolean rendered = false;
 
+                // apt reads binary-all only along with a concrete arch, so the all stanzas of a codename without any
+                // other package are listed in the Packages files of the configured arches
+                if (codenameSection.arches().equals(Set.of(DebArch.all)))
+                    codenameSection.arches().addAll(repoBuilder.config.allOnlyArchesOrDefault());
+
+                var sorted = new HashMap<Bucket, List<DebPackageMeta>>();
+                buckets.forEach((bucket, metas) -> sorted.put(bucket, retain(metas.stream().sorted(STANZA_ORDER).toList(), repoBuilder.config.getRetainVersions())));
+                // each stanza is rendered once, when a Packages file listing it is rendered. Architecture: all stanzas
+                // are shared by every arch of their component
+                var stanzas = new HashMap<Bucket, List<byte[]>>();
+
+                // every combination listed in the Release file gets a Packages file, even if it is empty
                 for (String component : codenameSection.components()) {
+                    var allBucket = new Bucket(component, DebArch.all);
                     for (DebArch arch : codenameSection.arches()) {
                         var packagesFile = component + "/binary-" + arch + "/Packages";
-                        var packagesListForArch = debPackageMetaList.stream()
-                                .filter(m -> m.getDebPackageConfig().getMeta().getArch() == arch)
-                                .toList();
-                        var content = bpi.buildPackagesIndex(packagesListForArch);
-                        var integrity = FileIntegrity.of(content, packagesFile);
-                        packagesFiles.put(packagesFile, integrity);
-
-                        var packagesFileGz = packagesFile + ".gz";
-                        var integrityGz = FileIntegrity.of(gzip(content), packagesFileGz);
-                        packagesFiles.put(packagesFileGz, integrityGz);
+                        var fileBuckets = arch == DebArch.all ? List.of(allBucket) : List.of(new Bucket(component, arch), allBucket);
+
+                        var entries = new TreeMap<String, String>();
+                        if (repoBuilder.previousStates != null)
+                            fileBuckets.forEach(bucket -> sorted.getOrDefault(bucket, List.of()).forEach(meta -> entries.merge(
+                                    entryKey(meta), meta.getHashes().getSha256() + " " + bpi.filename(meta), (a, b) -> a + "," + b)));
+                        var published = previous
+                                .map(p -> p.getPackages().get(packagesFile))
+                                .filter(p -> p.getEntries().equals(entries) && p.getPackages() != null && p.getPackagesGz() != null);
+
+                        PackagesMemo.Written written;
+                        if (published.isPresent()) {
+                            written = new PackagesMemo.Written(published.get().getPackages(), published.get().getPackagesGz());
+                            codenameSection.unchangedFiles().add(packagesFile);
+                            codenameSection.unchangedFiles().add(packagesFile + ".gz");
+                        } else {
+                            var fileStanzas = new ArrayList<byte[]>();
+                            fileBuckets.forEach(bucket -> fileStanzas.addAll(stanzas.computeIfAbsent(bucket,
+                                    b -> sorted.getOrDefault(b, List.of()).stream().map(bpi::metaToStanza).toList())));
+                            // another codename may already have written the same file
+                            written = repoBuilder.packagesMemo.write(packagesFile, fileStanzas);
+                            rendered = true;
+                        }
+                        packagesFiles.put(packagesFile, written.packages());
+                        packagesFiles.put(packagesFile + ".gz", written.packagesGz());
+                        state.getPackages().put(packagesFile, new CodenameState.PackagesState()
+                                .setEntries(entries)
+                                .setPackages(written.packages())
+                                .setPackagesGz(written.packagesGz()));
                     }
                 }
 
+                if (repoBuilder.previousStates != null) {
+                    codenameSection.setState(state);
+                    // no Packages file was rendered, none was dropped either, and the Release file is signed the same
+                    codenameSection.setUnchanged(!rendered && previous.isPresent()
+                            && previous.get().getPackages().keySet().equals(state.getPackages().keySet())
+                            && previous.get().sameRelease(state));
+                }
+
                 var br = new BuildRelease();
                 br.buildReleaseToString(repoBuilder.config, codenameSection);
 
                 return repoBuilder;
             }
 
-            @SneakyThrows
-            byte[] gzip(String content) {
-                var o = new ByteArrayOutputStream();
-                try (var i = new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
-                     var g = new GZIPOutputStream(o)) {
-                    i.transferTo(g);
+            /**
+             * @param sorted  packages of one component and arch, in {@link #STANZA_ORDER}
+             * @param retain  how many versions of each package to keep, or null to keep all
+             * @return the latest versions of each package, still sorted
+             */
+            static List<DebPackageMeta> retain(List<DebPackageMeta> sorted, Integer retain) {
+                if (retain == null)
+                    return sorted;
+                // 0 would list no package at all
+                Assert.isTrue(retain >= 1, "need to retain at least one version, got " + retain);
+                var retained = new ArrayList<DebPackageMeta>(sorted.size());
+                for (int i = 0; i < sorted.size(); ) {
+                    var name = sorted.get(i).getDebPackageConfig().getMeta().getName();
+                    int end = i;
+                    while (end < sorted.size() && sorted.get(end).getDebPackageConfig().getMeta().getName().equals(name))
+                        end++;
+                    // the versions of a package are in ascending order, keep the last ones
+                    retained.addAll(sorted.subList(Math.max(i, end - retain), end));
+                    i = end;
                 }
-                return o.toByteArray();
+                return retained;
+            }
+
+            static String entryKey(DebPackageMeta meta) {
+                var packageMeta = meta.getDebPackageConfig().getMeta();
+                return packageMeta.getName() + "/" + packageMeta.getVersion() + "/" + packageMeta.getArch();
+            }
+
+            record Bucket(String component, DebArch arch) {
             }
 
+            /**
+             * packages are partitioned by component and arch as they are added, each Packages file only lists its own
+             */
             public CodenameSectionBuilder addIndex(DebPackageMeta meta) {
-                codenameSection.arches().add(meta.getDebPackageConfig().getMeta().getArch());
-                codenameSection.components().add(meta.getDebPackageConfig().getControl().getSection());
-                debPackageMetaList.add(meta);
+                var component = meta.getDebPackageConfig().getControl().getSection();
+                var arch = meta.getDebPackageConfig().getMeta().getArch();
+                codenameSection.arches().add(arch);
+                codenameSection.components().add(component);
+                buckets.computeIfAbsent(new Bucket(component, arch), ignored -> new ConcurrentLinkedQueue<>()).add(meta);
                 return this;
             }
         }
@@ -1,14 +1,19 @@
 package deb.simple.build_deb;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import deb.simple.build_deb.BuildRepository.Repo;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.NonNull;
 import lombok.SneakyThrows;
+import lombok.ToString;
 import lombok.experimental.Accessors;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.bouncycastle.util.encoders.Hex;
 import software.amazon.awssdk.core.sync.RequestBody;
@@ -16,21 +21,57 @@ import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.*;
 
 import java.net.URI;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.stream.Collectors;
-
-import static deb.simple.build_deb.DebPackageConfig.PackageMeta.SD_INDEX_EXTENSION;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
 
 /**
  * reading and writing {@link Repo}
  */
 public interface BuildRepositoryIO {
+    /**
+     * where writeFiles remembers the sha256 of what it published, relative to the output
+     */
+    String PUBLISHED_STATE_FILENAME = ".simple-deb-4j-published.json";
+
     Map<String, List<DebPackageMeta>> readMetas();
 
-    void writeFiles(Map<String, FileIntegrity> files);
+    /**
+     * pushes every index into the sink, with its codename, as soon as it is decoded. the sink is called from any
+     * thread (e.g. {@link BuildRepository.RepoBuilder#addIndex(String, DebPackageMeta)}), so adding overlaps with the
+     * remaining i/o. returns once every index was pushed.
+     */
+    default void readMetas(BiConsumer<String, DebPackageMeta> sink) {
+        readMetas().forEach((codename, metas) -> metas.forEach(meta -> sink.accept(codename, meta)));
+    }
+
+    /**
+     * writes the files, skipping those that are already published with the same content (by sha256)
+     *
+     * @return how many files were written and how many skipped
+     */
+    WriteReport writeFiles(Map<String, FileIntegrity> files);
+
+    record WriteReport(int written, int skipped) {
+    }
+
+    /**
+     * @param files relative to the output, as in {@link #writeFiles(Map)}
+     * @return the paths of the files that are already published with the same content (by sha256), as writeFiles
+     * would skip them
+     */
+    Set<String> findPublished(Map<String, FileIntegrity> files);
+
+    /**
+     * @param path relative to the output, as in {@link #writeFiles(Map)}
+     * @return the content of a file published by a previous run, empty if there is none
+     */
+    Optional<byte[]> readPublished(String path);
 
     // ObjectMapper getObjectMapper();
 
@@ -44,38 +85,153 @@ public interface BuildRepositoryIO {
         Path inDir;
         @NonNull
         Path outDir;
+        @Getter(lazy = true)
+        @ToString.Exclude
+        @EqualsAndHashCode.Exclude
+        private final DebPackageMetaReader metaReader = new DebPackageMetaReader(objectMapper);
+        /**
+         * write every file, even if it is already published unchanged
+         */
+        boolean force;
 
-        @SneakyThrows
+        /**
+         * walks the directories and reads the index files, at most {@link IoExecutor#getMaxInFlight()} at once. owned
+         * by the caller, which closes it.
+         */
+        @NonNull
+        IoExecutor ioExecutor;
+
+        /**
+         * walks the codename directories concurrently, and reads the index files on {@link #ioExecutor} while the
+         * walk continues. parsing happens after the read, outside the i/o concurrency limit. the lists keep the
+         * order of the walk.
+         */
         @Override
         public Map<String, List<DebPackageMeta>> readMetas() {
+            var stats = new ScanStats();
+            var codeNames = Objects.requireNonNull(inDir.toFile().list());
+            var scans = Arrays.stream(codeNames)
+                    .map(codeName -> CompletableFuture.supplyAsync(() -> scan(inDir.resolve(codeName), stats), ioExecutor.getExecutor()))
+                    .toList();
+
             var result = new HashMap<String, List<DebPackageMeta>>();
-            for (String codeName : Objects.requireNonNull(inDir.toFile().list())) {
-                try (var files = Files.walk(inDir.resolve(codeName))) {
-                    var list = files
-                            .filter(file -> file.getFileName().toString().endsWith(SD_INDEX_EXTENSION))
-                            .map(this::readValue)
-                            .toList();
-                    result.computeIfAbsent(codeName, ignored -> new ArrayList<>()).addAll(list);
-                }
+            for (int i = 0; i < codeNames.length; i++) {
+                var list = scans.get(i).join().stream().map(CompletableFuture::join).toList();
+                // directories without indexes are not codenames, e.g. the components of a shared pool
+                if (!list.isEmpty())
+                    result.put(codeNames[i], list);
             }
+            logStats(stats);
+            return result;
+        }
 
+        @Override
+        public void readMetas(BiConsumer<String, DebPackageMeta> sink) {
+            var stats = new ScanStats();
+            Arrays.stream(Objects.requireNonNull(inDir.toFile().list()))
+                    .map(codeName -> CompletableFuture.supplyAsync(() -> scan(inDir.resolve(codeName), stats), ioExecutor.getExecutor())
+                            .thenCompose(reads -> CompletableFuture.allOf(reads.stream()
+                                    .map(read -> read.thenAccept(meta -> sink.accept(codeName, meta)))
+                                    .toArray(CompletableFuture[]::new))))
+                    .toList()
+                    .forEach(CompletableFuture::join);
+            logStats(stats);
+        }
 
-            return result;
+        void logStats(ScanStats stats) {
+            log.info("scanned {} index files in {}: {}ms reading, {}ms parsing (summed over threads), i/o: {}",
+                    stats.files.sum(), inDir, stats.readNanos.sum() / 1_000_000, stats.parseNanos.sum() / 1_000_000, ioExecutor.report());
+        }
+
+        List<CompletableFuture<DebPackageMeta>> scan(Path directory, ScanStats stats) {
+            var indexes = ioExecutor.call("Walk", () -> walkIndexes(directory));
+            stats.files.add(indexes.size());
+            return indexes.stream()
+                    .map(path -> ioExecutor.submit("ReadIndex", () -> readAllBytes(path, stats))
+                            .thenApply(bytes -> parse(path, bytes, stats)))
+                    .toList();
+        }
+
+        @SneakyThrows
+        static List<Path> walkIndexes(Path directory) {
+            try (var files = Files.walk(directory)) {
+                return files.filter(file -> IndexFormat.isIndex(file.getFileName().toString())).toList();
+            }
         }
 
         @SneakyThrows
-        private DebPackageMeta readValue(Path path) {
-            return objectMapper.readValue(path.toFile(), DebPackageMeta.class);
+        static byte[] readAllBytes(Path path, ScanStats stats) {
+            long start = System.nanoTime();
+            try {
+                return Files.readAllBytes(path);
+            } finally {
+                stats.readNanos.add(System.nanoTime() - start);
+            }
+        }
+
+        DebPackageMeta parse(Path path, byte[] bytes, ScanStats stats) {
+            long start = System.nanoTime();
+            try {
+                return getMetaReader().read(IndexFormat.of(path.getFileName().toString()).orElseThrow(), bytes);
+            } finally {
+                stats.parseNanos.add(System.nanoTime() - start);
+            }
+        }
+
+        static class ScanStats {
+            final LongAdder files = new LongAdder();
+            final LongAdder readNanos = new LongAdder();
+            final LongAdder parseNanos = new LongAdder();
         }
 
+        /**
+         * existing files are compared by size, then by sha256 (hashing a local file is cheaper than keeping a
+         * manifest of published state in sync)
+         */
         @SneakyThrows
         @Override
-        public void writeFiles(Map<String, FileIntegrity> files) {
+        public WriteReport writeFiles(Map<String, FileIntegrity> files) {
+            int written = 0;
+            int skipped = 0;
             for (var fileEntry : files.entrySet()) {
-                log.info("writing file {} relative to dir {}", fileEntry.getKey(), outDir);
                 Path target = outDir.resolve(fileEntry.getKey());
+                if (!force && isPublished(target, fileEntry.getValue())) {
+                    log.debug("skipping unchanged file {} relative to dir {}", fileEntry.getKey(), outDir);
+                    skipped++;
+                    continue;
+                }
+                log.info("writing file {} relative to dir {}", fileEntry.getKey(), outDir);
                 FileUtils.createParentDirectories(target.toFile());
-                Files.write(target, fileEntry.getValue().getContent());
+                fileEntry.getValue().writeContentTo(target);
+                written++;
+            }
+            log.info("wrote {} files to {}, skipped {} unchanged", written, outDir, skipped);
+            return new WriteReport(written, skipped);
+        }
+
+        @Override
+        public Set<String> findPublished(Map<String, FileIntegrity> files) {
+            var published = new HashSet<String>();
+            files.forEach((path, integrity) -> {
+                if (isPublished(outDir.resolve(path), integrity))
+                    published.add(path);
+            });
+            return published;
+        }
+
+        @SneakyThrows
+        @Override
+        public Optional<byte[]> readPublished(String path) {
+            var file = outDir.resolve(path);
+            return Files.isRegularFile(file) ? Optional.of(Files.readAllBytes(file)) : Optional.empty();
+        }
+
+        @SneakyThrows
+        boolean isPublished(Path target, FileIntegrity integrity) {
+            if (!Files.isRegularFile(target) || Files.size(target) != integrity.getSize())
+                return false;
+            try (var in = Files.newInputStream(target)) {
+                return DigestUtils.sha256Hex(in).equals(integrity.getSha256());
             }
         }
     }
@@ -92,85 +248,396 @@ public interface BuildRepositoryIO {
         URI inPrefix;
         @NonNull
         URI outPrefix;
+        @Getter(lazy = true)
+        @ToString.Exclude
+        @EqualsAndHashCode.Exclude
+        private final DebPackageMetaReader metaReader = new DebPackageMetaReader(objectMapper);
+        /**
+         * runs the s3 requests, shared by readMetas and writeFiles. owned by the caller, which closes it.
+         */
+        @NonNull
+        IoExecutor ioExecutor;
+        /**
+         * write every file, even if it is already published unchanged
+         */
+        boolean force;
+        /**
+         * read the index files even for codenames with a {@link PoolManifest}, and replace the manifest with them
+         */
+        boolean rebuildManifest;
+        /**
+         * index files whose ETag did not change since they were cached are not downloaded again (may be null)
+         */
+        IndexCache indexCache;
 
-        @SneakyThrows
+        /**
+         * lists the codenames (the common prefixes below the pool), then reads each codename concurrently: from its
+         * {@link PoolManifest} if it has one, otherwise by paging through the codename and fetching the index files
+         * of a page as soon as the page arrives, while the listing continues.
+         */
         @Override
         public Map<String, List<DebPackageMeta>> readMetas() {
-            var resultKeys = new HashMap<String, List<S3Object>>();
+            var poolPrefix = poolPrefix();
+            var codenamePrefixes = listCodenamePrefixes(poolPrefix);
+            log.debug("listing codenames {} under s3://{}/{}", codenamePrefixes, inPrefix.getHost(), poolPrefix);
 
-            var response = s3Client.listObjectsV2(ListObjectsV2Request.builder()
-                    .bucket(inPrefix.getHost())
-                    .prefix(StringUtils.stripStart(inPrefix.getPath(), "/"))
-                    .build());
+            // a listing only holds an i/o slot while it requests a page, not while it waits for the next one
+            var listings = codenamePrefixes.stream()
+                    .map(codenamePrefix -> CompletableFuture.supplyAsync(() -> readCodename(codenamePrefix), ioExecutor.getExecutor()))
+                    .toList();
+
+            var result = new HashMap<String, List<DebPackageMeta>>();
+            for (int i = 0; i < codenamePrefixes.size(); i++) {
+                var codeName = codeName(poolPrefix, codenamePrefixes.get(i));
+                var values = listings.get(i).join().stream().map(CompletableFuture::join).toList();
+                if (!values.isEmpty())
+                    result.put(codeName, values);
+            }
+            finishRead(poolPrefix, result.values().stream().mapToInt(List::size).sum());
+            return result;
+        }
+
+        @Override
+        public void readMetas(BiConsumer<String, DebPackageMeta> sink) {
+            var poolPrefix = poolPrefix();
+            var codenamePrefixes = listCodenamePrefixes(poolPrefix);
+            log.debug("listing codenames {} under s3://{}/{}", codenamePrefixes, inPrefix.getHost(), poolPrefix);
+
+            var count = new LongAdder();
+            codenamePrefixes.stream()
+                    .map(codenamePrefix -> {
+                        var codeName = codeName(poolPrefix, codenamePrefix);
+                        return CompletableFuture.supplyAsync(() -> readCodename(codenamePrefix), ioExecutor.getExecutor())
+                                .thenCompose(fetches -> CompletableFuture.allOf(fetches.stream()
+                                        .map(fetch -> fetch.thenAccept(meta -> {
+                                            sink.accept(codeName, meta);
+                                            count.increment();
+                                        }))
+                                        .toArray(CompletableFuture[]::new)));
+                    })
+                    .toList()
+                    .forEach(CompletableFuture::join);
+            finishRead(poolPrefix, count.sum());
+        }
 
-            addListToResultKeys(filter(response.contents()), resultKeys);
+        static String codeName(String poolPrefix, String codenamePrefix) {
+            return StringUtils.removeEnd(codenamePrefix.substring(poolPrefix.length()), "/");
+        }
+
+        void finishRead(String poolPrefix, long indexes) {
+            if (indexCache != null) {
+                // indexes that were not listed were deleted, or belong to a codename read from its manifest
+                indexCache.evictUnused(cacheKey(poolPrefix));
+                indexCache.save();
+            }
+            log.info("read {} indexes from s3://{}/{}, s3 i/o: {}", indexes, inPrefix.getHost(), poolPrefix, ioExecutor.report());
+        }
 
-            if (response.isTruncated()) {
-                String token = response.nextContinuationToken();
-                response = s3Client.listObjectsV2(ListObjectsV2Request.builder()
+        String poolPrefix() {
+            var path = StringUtils.strip(inPrefix.getPath(), "/");
+            return path.isEmpty() ? "" : path + "/";
+        }
+
+        List<String> listCodenamePrefixes(String poolPrefix) {
+            var result = new ArrayList<String>();
+            String token = null;
+            do {
+                var page = listPage(ListObjectsV2Request.builder()
                         .bucket(inPrefix.getHost())
-                        .prefix(StringUtils.stripStart(inPrefix.getPath(), "/"))
+                        .prefix(poolPrefix)
+                        .delimiter("/")
                         .continuationToken(token)
                         .build());
+                page.commonPrefixes().forEach(commonPrefix -> result.add(commonPrefix.prefix()));
+                token = page.nextContinuationToken();
+            } while (token != null);
+            return result;
+        }
 
-                addListToResultKeys(filter(response.contents()), resultKeys);
+        /**
+         * a codename without a manifest is listed, unless it is part of the shared pool, which holds no index files
+         *
+         * @return the pending fetches of every index of the codename, in key order
+         */
+        List<CompletableFuture<DebPackageMeta>> readCodename(String codenamePrefix) {
+            var manifest = new PoolManifest(s3Client, ioExecutor, objectMapper, inPrefix.getHost(), codenamePrefix);
+            if (!rebuildManifest) {
+                var state = manifest.read();
+                if (state.isPresent())
+                    return state.get().values().stream().map(CompletableFuture::completedFuture).toList();
+            }
+            if (isSharedPool(codenamePrefix)) {
+                log.debug("skipping s3://{}/{}, it is part of the shared pool", inPrefix.getHost(), codenamePrefix);
+                return List.of();
             }
+            if (rebuildManifest) {
+                var state = manifest.rebuild(() -> {
+                    var rebuilt = new TreeMap<String, DebPackageMeta>();
+                    listAndFetch(codenamePrefix).forEach((key, fetch) -> rebuilt.put(key, fetch.join()));
+                    return rebuilt;
+                });
+                return state.values().stream().map(CompletableFuture::completedFuture).toList();
+            }
+            return List.copyOf(listAndFetch(codenamePrefix).values());
+        }
 
-            return resultKeys.entrySet().stream()
-                    .map(codeNameKeys -> {
-                        var values = codeNameKeys.getValue().stream()
-                                .parallel()
-                                .map(s3Object -> getDebPackageMeta(s3Object, s3Client))
-                                .toList();
-                        return Map.entry(codeNameKeys.getKey(), values);
-                    })
-                    .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        /**
+         * the pool itself (when reading from the repository root), or a component of the shared pool: only the
+         * prefix directories of {@link BuildPackagesIndex#sharedPoolDirectory(String, String)} directly below it,
+         * checked with the first page of them.
+         */
+        boolean isSharedPool(String codenamePrefix) {
+            if (codeName(poolPrefix(), codenamePrefix).equals("pool"))
+                return true;
+            var page = listPage(ListObjectsV2Request.builder()
+                    .bucket(inPrefix.getHost())
+                    .prefix(codenamePrefix)
+                    .delimiter("/")
+                    .build());
+            // a manifest an earlier version created there does not count
+            var directories = page.commonPrefixes().stream()
+                    .map(commonPrefix -> codeName(codenamePrefix, commonPrefix.prefix()))
+                    .filter(directory -> !PoolManifest.MANIFEST_DIRECTORY.equals(directory + "/"))
+                    .toList();
+            return page.contents().isEmpty() && !directories.isEmpty()
+                    && directories.stream().allMatch(BuildPackagesIndex::isSharedPoolPrefix);
+        }
+
+        /**
+         * @return the pending fetch of every index below the prefix, by key, in key order
+         */
+        SequencedMap<String, CompletableFuture<DebPackageMeta>> listAndFetch(String codenamePrefix) {
+            var fetches = new LinkedHashMap<String, CompletableFuture<DebPackageMeta>>();
+            String token = null;
+            do {
+                var page = listPage(ListObjectsV2Request.builder()
+                        .bucket(inPrefix.getHost())
+                        .prefix(codenamePrefix)
+                        .continuationToken(token)
+                        .build());
+                for (var s3Object : filter(page.contents())) {
+                    var cached = indexCache == null ? Optional.<DebPackageMeta>empty() : indexCache.get(cacheKey(s3Object.key()), s3Object.eTag());
+                    fetches.put(s3Object.key(), cached
+                            .map(CompletableFuture::completedFuture)
+                            .orElseGet(() -> ioExecutor.submit("GetObject", () -> getDebPackageMeta(s3Object, s3Client))));
+                }
+                token = page.nextContinuationToken();
+            } while (token != null);
+            return fetches;
+        }
+
+        String cacheKey(String key) {
+            return "s3://" + inPrefix.getHost() + "/" + key;
+        }
+
+        ListObjectsV2Response listPage(ListObjectsV2Request request) {
+            return ioExecutor.call("ListObjectsV2", () -> s3Client.listObjectsV2(request));
         }
 
         @SneakyThrows
         private DebPackageMeta getDebPackageMeta(S3Object s3Object, S3Client s3Client) {
+            DebPackageMeta meta;
             var object = s3Client.getObject(GetObjectRequest.builder().bucket(inPrefix.getHost()).key(s3Object.key()).build());
-            var objectString = IOUtils.toString(object, StandardCharsets.UTF_8);
-            return objectMapper.readValue(objectString, DebPackageMeta.class);
-        }
-
-        private void addListToResultKeys(List<S3Object> list, HashMap<String, List<S3Object>> resultKeys) {
-            list.forEach(s3Object -> {
-                var codeName = s3Object.key().substring(inPrefix.getPath().length()).split("/")[0];
-                List<S3Object> keyList = resultKeys.computeIfAbsent(codeName, ignored -> new ArrayList<>());
-                keyList.add(s3Object);
-            });
+            try (object) {
+                meta = getMetaReader().read(IndexFormat.of(s3Object.key()).orElseThrow(), object);
+            }
+            if (indexCache != null)
+                // the ETag of what was read, which may be newer than the listing
+                indexCache.put(cacheKey(s3Object.key()), object.response().eTag(), meta);
+            return meta;
         }
 
         private List<S3Object> filter(List<S3Object> contents) {
-            return contents.stream().filter(e -> e.key().endsWith(SD_INDEX_EXTENSION)).toList();
+            return contents.stream().filter(e -> IndexFormat.isIndex(e.key())).toList();
         }
 
+        /**
+         * a file is unchanged when the published state manifest written by the previous run (one GET) has its sha256
+         * and the ETag it had when written, and a listing of the written directories (one LIST per directory and page)
+         * still shows that ETag. files missing from the manifest, deleted or overwritten since, are checked by the
+         * checksum of the existing object (one HEAD each). the manifest is rewritten when anything changed.
+         */
         @Override
-        public void writeFiles(Map<String, FileIntegrity> files) {
-            List<Result<PutObjectResponse, Exception>> list = files.entrySet()
+        public WriteReport writeFiles(Map<String, FileIntegrity> files) {
+            var publishedState = force ? new HashMap<String, PublishedFile>() : readPublishedState();
+            var unchanged = force ? Map.<String, String>of() : findUnchanged(files, publishedState);
+            var toWrite = files.entrySet().stream()
+                    .filter(fileEntry -> !unchanged.containsKey(fileEntry.getKey()))
+                    .toList();
+
+            List<Result<PutObjectResponse, Throwable>> list = toWrite
                     .stream()
-                    .parallel()
-                    .map(fileEntry -> {
-                        try {
-                            return new Result<PutObjectResponse, Exception>(s3Client.putObject(
+                    .map(fileEntry -> ioExecutor.submit("PutObject", () -> s3Client.putObject(
                                     PutObjectRequest.builder()
-                                            .checksumSHA256(Base64.getEncoder().encodeToString(Hex.decode(fileEntry.getValue().getSha256())))
+                                            .checksumSHA256(base64Sha256(fileEntry.getValue()))
                                             .bucket(outPrefix.getHost())
-                                            .key(StringUtils.strip(outPrefix.getPath(), "/") + "/" + fileEntry.getKey())
+                                            .key(outKey(fileEntry.getKey()))
                                             .build(),
-                                    RequestBody.fromBytes(fileEntry.getValue().getContent())), null);
-                        } catch (S3Exception e) {
-                            return new Result<PutObjectResponse, Exception>(null, e);
-                        }
-                    })
+                                    requestBody(fileEntry.getValue())))
+                            .handle((response, throwable) -> throwable == null
+                                    ? new Result<PutObjectResponse, Throwable>(response, null)
+                                    : new Result<PutObjectResponse, Throwable>(null, unwrap(throwable))))
+                    .toList()
+                    .stream()
+                    .map(CompletableFuture::join)
                     .toList();
+            log.info("wrote {} files to {}, skipped {} unchanged, s3 i/o: {}", list.size(), outPrefix, unchanged.size(), ioExecutor.report());
 
             var listSuccess = list.stream().map(Result::success).toList();
             log.debug("uploaded files: {}", listSuccess);
             if (!listSuccess.stream().allMatch(Boolean::booleanValue)) {
                 log.warn("uploaded files not all successful: {}", list);
             }
+
+            var newState = new TreeMap<>(publishedState);
+            unchanged.forEach((path, eTag) -> newState.put(path, new PublishedFile(files.get(path).getSha256(), eTag)));
+            for (int i = 0; i < toWrite.size(); i++) {
+                if (list.get(i).success())
+                    newState.put(toWrite.get(i).getKey(), new PublishedFile(toWrite.get(i).getValue().getSha256(), list.get(i).successValue().eTag()));
+                else
+                    newState.remove(toWrite.get(i).getKey());
+            }
+            if (!newState.equals(publishedState))
+                writePublishedState(newState);
+
+            return new WriteReport((int) listSuccess.stream().filter(Boolean::booleanValue).count(), unchanged.size());
+        }
+
+        @Override
+        public Set<String> findPublished(Map<String, FileIntegrity> files) {
+            return findUnchanged(files, readPublishedState()).keySet();
+        }
+
+        /**
+         * @return the ETag of every unchanged file, by path
+         */
+        Map<String, String> findUnchanged(Map<String, FileIntegrity> files, Map<String, PublishedFile> publishedState) {
+            var listed = publishedState.isEmpty() ? Map.<String, String>of() : listETags(files.keySet());
+            var unchanged = new HashMap<String, String>();
+            var heads = new HashMap<String, CompletableFuture<Optional<String>>>();
+            files.forEach((path, integrity) -> {
+                var published = publishedState.get(path);
+                var eTag = listed.get(path);
+                if (published == null || eTag == null || !eTag.equals(published.eTag()))
+                    heads.put(path, ioExecutor.submit("HeadObject", () -> headChecksum(path, integrity)));
+                else if (published.sha256().equals(integrity.getSha256()))
+                    unchanged.put(path, eTag);
+            });
+            heads.forEach((path, head) -> head.join().ifPresent(eTag -> unchanged.put(path, eTag)));
+            return unchanged;
+        }
+
+        /**
+         * lists the top level directories of the paths recursively and the top level files of the output
+         *
+         * @return the ETag of every listed object, by path
+         */
+        Map<String, String> listETags(Collection<String> paths) {
+            var root = outKey("");
+            var eTags = new ConcurrentHashMap<String, String>();
+            paths.stream()
+                    .map(path -> path.contains("/") ? StringUtils.substringBefore(path, "/") + "/" : "")
+                    .distinct()
+                    .map(directory -> CompletableFuture.runAsync(() -> {
+                        String token = null;
+                        do {
+                            var page = listPage(ListObjectsV2Request.builder()
+                                    .bucket(outPrefix.getHost())
+                                    .prefix(root + directory)
+                                    .delimiter(directory.isEmpty() ? "/" : null)
+                                    .continuationToken(token)
+                                    .build());
+                            page.contents().forEach(s3Object -> eTags.put(s3Object.key().substring(root.length()), s3Object.eTag()));
+                            token = page.nextContinuationToken();
+                        } while (token != null);
+                    }, ioExecutor.getExecutor()))
+                    .toList()
+                    .forEach(CompletableFuture::join);
+            return eTags;
+        }
+
+        /**
+         * @return the ETag of the existing object, when it has the checksum of the file
+         */
+        Optional<String> headChecksum(String path, FileIntegrity integrity) {
+            try {
+                var head = s3Client.headObject(HeadObjectRequest.builder()
+                        .bucket(outPrefix.getHost())
+                        .key(outKey(path))
+                        .checksumMode(ChecksumMode.ENABLED)
+                        .build());
+                return base64Sha256(integrity).equals(head.checksumSHA256()) ? Optional.of(head.eTag()) : Optional.empty();
+            } catch (NoSuchKeyException e) {
+                return Optional.empty();
+            } catch (S3Exception e) {
+                if (e.statusCode() == 404)
+                    return Optional.empty();
+                throw e;
+            }
+        }
+
+        @Override
+        public Optional<byte[]> readPublished(String path) {
+            try {
+                return Optional.of(ioExecutor.call("GetObject", () -> s3Client.getObjectAsBytes(GetObjectRequest.builder()
+                        .bucket(outPrefix.getHost())
+                        .key(outKey(path))
+                        .build()).asByteArray()));
+            } catch (NoSuchKeyException e) {
+                return Optional.empty();
+            }
+        }
+
+        @SneakyThrows
+        Map<String, PublishedFile> readPublishedState() {
+            try {
+                var bytes = ioExecutor.call("GetObject", () -> s3Client.getObjectAsBytes(GetObjectRequest.builder()
+                        .bucket(outPrefix.getHost())
+                        .key(outKey(PUBLISHED_STATE_FILENAME))
+                        .build()).asByteArray());
+                return objectMapper.readValue(bytes, new TypeReference<HashMap<String, PublishedFile>>() {
+                });
+            } catch (NoSuchKeyException e) {
+                log.info("no published state at {}, checking existing files individually", outKey(PUBLISHED_STATE_FILENAME));
+                return new HashMap<>();
+            } catch (JsonProcessingException e) {
+                log.info("unreadable published state at {}, checking existing files individually: {}", outKey(PUBLISHED_STATE_FILENAME), e.getOriginalMessage());
+                return new HashMap<>();
+            }
+        }
+
+        @SneakyThrows
+        void writePublishedState(Map<String, PublishedFile> state) {
+            var bytes = objectMapper.writeValueAsBytes(state);
+            ioExecutor.call("PutObject", () -> s3Client.putObject(PutObjectRequest.builder()
+                            .bucket(outPrefix.getHost())
+                            .key(outKey(PUBLISHED_STATE_FILENAME))
+                            .build(),
+                    RequestBody.fromBytes(bytes)));
+        }
+
+        String outKey(String path) {
+            return StringUtils.strip(outPrefix.getPath(), "/") + "/" + path;
+        }
+
+        static RequestBody requestBody(FileIntegrity integrity) {
+            return integrity.getContent() == null && integrity.getContentFile() != null
+                    ? RequestBody.fromFile(integrity.getContentFile())
+                    : RequestBody.fromBytes(integrity.getContent());
+        }
+
+        static String base64Sha256(FileIntegrity integrity) {
+            return Base64.getEncoder().encodeToString(Hex.decode(integrity.getSha256()));
+        }
+
+        static Throwable unwrap(Throwable throwable) {
+            return throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+        }
+
+        /**
+         * what the previous run published at a path
+         */
+        record PublishedFile(String sha256, String eTag) {
         }
 
         record Result<T, E extends Throwable>(T successValue, E exceptionValue) {
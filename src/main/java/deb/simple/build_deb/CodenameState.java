@@ -0,0 +1,98 @@
+package deb.simple.build_deb;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import lombok.Data;
+import lombok.SneakyThrows;
+import lombok.experimental.Accessors;
+
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * what an incremental build published for a codename: for each Packages file, a fingerprint of every package it
+ * lists and the hashes of the file (not its content), and what else the Release file depends on
+ * <p>
+ * the next incremental build compares the packages of each Packages file with the snapshot. files whose packages did
+ * not change are neither rendered nor written again, the Release file lists them with the hashes of the snapshot. a
+ * codename is only left unpublished if its Release file would be the same too, see {@link #sameRelease(CodenameState)}.
+ * stored as {@code <codename>/.simple-deb-4j-state.json} next to the Release file. a snapshot is only used while
+ * its Packages files are still published as it recorded them, see {@link #isPublished(String, BuildRepositoryIO)}.
+ */
+@Data
+@Accessors(chain = true)
+public class CodenameState {
+    public static final String FILENAME = ".simple-deb-4j-state.json";
+    /**
+     * snapshots of other versions are ignored, the codename is then built completely
+     */
+    public static final int VERSION = 1;
+    static final ObjectMapper OBJECT_MAPPER = JsonMapper.builder().findAndAddModules().build();
+
+    int version = VERSION;
+    /**
+     * by path within the codename, e.g. {@code main/binary-amd64/Packages}
+     */
+    SortedMap<String, PackagesState> packages = new TreeMap<>();
+    String origin;
+    String label;
+    /**
+     * sha256 of the public key the Release file is signed with, null if it is not signed
+     */
+    String signingKey;
+
+    @Data
+    @Accessors(chain = true)
+    public static class PackagesState {
+        /**
+         * the sha256 and filename of each package, by {@code name/version/arch}
+         */
+        SortedMap<String, String> entries = new TreeMap<>();
+        FileIntegrity packages;
+        FileIntegrity packagesGz;
+    }
+
+    /**
+     * @return the snapshot, or empty if it was written by another version
+     */
+    @SneakyThrows
+    public static Optional<CodenameState> read(byte[] bytes) {
+        var state = OBJECT_MAPPER.readValue(bytes, CodenameState.class);
+        return state.getVersion() == VERSION ? Optional.of(state) : Optional.empty();
+    }
+
+    /**
+     * a full build (or another tool) may have rewritten the Packages files since this snapshot, the Release file would
+     * then list hashes that do not match what apt downloads
+     *
+     * @return whether every Packages file of the snapshot is published with the hashes it recorded
+     */
+    public boolean isPublished(String codename, BuildRepositoryIO output) {
+        var files = new HashMap<String, FileIntegrity>();
+        packages.forEach((path, state) -> {
+            if (state.getPackages() != null)
+                files.put(codename + "/" + path, state.getPackages());
+            if (state.getPackagesGz() != null)
+                files.put(codename + "/" + path + ".gz", state.getPackagesGz());
+        });
+        return output.findPublished(files).size() == files.size();
+    }
+
+    /**
+     * @return whether the Release file and its signatures need no update for the other state, besides the hashes of
+     * the Packages files
+     */
+    public boolean sameRelease(CodenameState other) {
+        return Objects.equals(origin, other.origin)
+                && Objects.equals(label, other.label)
+                && Objects.equals(signingKey, other.signingKey);
+    }
+
+    @SneakyThrows
+    public byte[] toBytes() {
+        return OBJECT_MAPPER.writeValueAsBytes(this);
+    }
+}
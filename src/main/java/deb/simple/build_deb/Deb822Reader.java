@@ -0,0 +1,285 @@
+package deb.simple.build_deb;
+
+import lombok.SneakyThrows;
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * reads deb822 stanzas (Packages, Release, control files) one at a time from a stream
+ * <p>
+ * the input is read into a buffer that only has to hold the stanza being parsed, so memory is bounded by the largest
+ * stanza, not by the file. {@link #next()} records where the fields of the stanza are in the buffer, and
+ * {@link Stanza} gives access to their names and values without copying them. the stanza is only valid until the next
+ * call to {@link #next()}.
+ * <p>
+ * a field value spans its continuation lines (lines starting with a space or tab), and keeps the line breaks between
+ * them, as in {@code Description: summary\n long description}. comment lines (starting with '#') are skipped, line
+ * endings may be {@code \n} or {@code \r\n}. not thread safe.
+ */
+public class Deb822Reader implements Closeable {
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    static final byte[] GZIP_MAGIC = {(byte) 0x1f, (byte) 0x8b};
+    static final byte[] XZ_MAGIC = {(byte) 0xfd, '7', 'z', 'X', 'Z', 0};
+
+    final InputStream inputStream;
+    final Stanza stanza = new Stanza();
+    byte[] buffer;
+    /**
+     * first byte of the current stanza, field offsets are relative to it
+     */
+    int start;
+    /**
+     * next byte to parse
+     */
+    int position;
+    /**
+     * end of the bytes read
+     */
+    int limit;
+    boolean eof;
+
+    public Deb822Reader(InputStream inputStream, int bufferSize) {
+        this.inputStream = inputStream;
+        this.buffer = new byte[Math.max(16, bufferSize)];
+    }
+
+    public Deb822Reader(InputStream inputStream) {
+        this(inputStream, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param inputStream plain, gzip or xz compressed (detected from the first bytes)
+     */
+    public static Deb822Reader open(InputStream inputStream) {
+        return new Deb822Reader(decompress(inputStream));
+    }
+
+    @SneakyThrows
+    public static Deb822Reader open(Path path) {
+        return open(Files.newInputStream(path));
+    }
+
+    @SneakyThrows
+    static InputStream decompress(InputStream inputStream) {
+        var buffered = new BufferedInputStream(inputStream, DEFAULT_BUFFER_SIZE);
+        buffered.mark(XZ_MAGIC.length);
+        var magic = buffered.readNBytes(XZ_MAGIC.length);
+        buffered.reset();
+        if (startsWith(magic, GZIP_MAGIC))
+            return new GZIPInputStream(buffered, DEFAULT_BUFFER_SIZE);
+        if (startsWith(magic, XZ_MAGIC))
+            return new XZCompressorInputStream(buffered);
+        return buffered;
+    }
+
+    static boolean startsWith(byte[] bytes, byte[] prefix) {
+        return bytes.length >= prefix.length && Arrays.equals(bytes, 0, prefix.length, prefix, 0, prefix.length);
+    }
+
+    /**
+     * parses the next stanza
+     *
+     * @return false once there are no more stanzas
+     * @throws IllegalStateException if a line is neither a field, a continuation, a comment nor blank
+     */
+    @SneakyThrows
+    public boolean next() {
+        stanza.size = 0;
+        start = position;
+        while (true) {
+            int newline = indexOf((byte) '\n', position, limit);
+            if (newline < 0 && !eof) {
+                fill();
+                continue;
+            }
+            if (newline < 0 && position == limit)
+                // end of input
+                return stanza.size > 0;
+
+            int lineStart = position;
+            int lineEnd = newline < 0 ? limit : newline;
+            position = newline < 0 ? limit : newline + 1;
+            if (lineEnd > lineStart && buffer[lineEnd - 1] == '\r')
+                lineEnd--;
+
+            if (isBlank(lineStart, lineEnd)) {
+                if (stanza.size > 0)
+                    return true;
+                // blank lines before the stanza
+                start = position;
+            } else if (buffer[lineStart] == '#') {
+                continue;
+            } else if (buffer[lineStart] == ' ' || buffer[lineStart] == '\t') {
+                if (stanza.size == 0)
+                    throw new IllegalStateException("continuation line without a field: " + line(lineStart, lineEnd));
+                stanza.offsets[stanza.size * 4 - 1] = lineEnd - start;
+            } else {
+                int colon = indexOf((byte) ':', lineStart, lineEnd);
+                if (colon < 0)
+                    throw new IllegalStateException("not a field: " + line(lineStart, lineEnd));
+                int valueStart = colon + 1;
+                while (valueStart < lineEnd && (buffer[valueStart] == ' ' || buffer[valueStart] == '\t'))
+                    valueStart++;
+                stanza.add(lineStart - start, colon - start, valueStart - start, lineEnd - start);
+            }
+        }
+    }
+
+    /**
+     * @return the stanza parsed by the last {@link #next()}, overwritten by the next one
+     */
+    public Stanza stanza() {
+        return stanza;
+    }
+
+    /**
+     * moves the current stanza to the start of the buffer (growing it if the stanza fills it) and reads more input
+     */
+    void fill() throws IOException {
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, limit - start);
+            position -= start;
+            limit -= start;
+            start = 0;
+        }
+        if (limit == buffer.length)
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        int read = inputStream.read(buffer, limit, buffer.length - limit);
+        if (read < 0)
+            eof = true;
+        else
+            limit += read;
+    }
+
+    int indexOf(byte b, int from, int to) {
+        for (int i = from; i < to; i++)
+            if (buffer[i] == b)
+                return i;
+        return -1;
+    }
+
+    boolean isBlank(int from, int to) {
+        for (int i = from; i < to; i++)
+            if (buffer[i] != ' ' && buffer[i] != '\t')
+                return false;
+        return true;
+    }
+
+    String line(int from, int to) {
+        return new String(buffer, from, Math.min(to - from, 80), StandardCharsets.UTF_8);
+    }
+
+    @SneakyThrows
+    @Override
+    public void close() {
+        inputStream.close();
+    }
+
+    /**
+     * the fields of the current stanza, as offsets into the reader's buffer
+     */
+    public class Stanza {
+        /**
+         * name start, name end, value start, value end of each field
+         */
+        int[] offsets = new int[4 * 32];
+        int size;
+
+        void add(int nameStart, int nameEnd, int valueStart, int valueEnd) {
+            if (size * 4 == offsets.length)
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            offsets[size * 4] = nameStart;
+            offsets[size * 4 + 1] = nameEnd;
+            offsets[size * 4 + 2] = valueStart;
+            offsets[size * 4 + 3] = valueEnd;
+            size++;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public String name(int field) {
+            return string(offsets[field * 4], offsets[field * 4 + 1]);
+        }
+
+        /**
+         * @return a read only view of the value in the buffer, without copying it
+         */
+        public ByteBuffer value(int field) {
+            return ByteBuffer.wrap(buffer, start + offsets[field * 4 + 2], offsets[field * 4 + 3] - offsets[field * 4 + 2])
+                    .slice()
+                    .asReadOnlyBuffer();
+        }
+
+        /**
+         * @return the index of the field, names compare ignoring ASCII case (as deb822 does), or -1
+         */
+        public int indexOf(String name) {
+            for (int field = 0; field < size; field++)
+                if (nameEquals(field, name))
+                    return field;
+            return -1;
+        }
+
+        boolean nameEquals(int field, String name) {
+            int nameStart = start + offsets[field * 4];
+            int length = offsets[field * 4 + 1] - offsets[field * 4];
+            if (length != name.length())
+                return false;
+            for (int i = 0; i < length; i++) {
+                int a = buffer[nameStart + i];
+                int b = name.charAt(i);
+                if (a != b && !(isAsciiLetter(b) && (a | 0x20) == (b | 0x20)))
+                    return false;
+            }
+            return true;
+        }
+
+        static boolean isAsciiLetter(int c) {
+            return c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z';
+        }
+
+        /**
+         * @return a read only view of the value, or null if the stanza has no such field
+         */
+        public ByteBuffer value(String name) {
+            int field = indexOf(name);
+            return field < 0 ? null : value(field);
+        }
+
+        /**
+         * @return the value decoded as UTF-8, or null if the stanza has no such field
+         */
+        public String get(String name) {
+            int field = indexOf(name);
+            return field < 0 ? null : string(offsets[field * 4 + 2], offsets[field * 4 + 3]);
+        }
+
+        /**
+         * @return a copy of the fields, in order
+         */
+        public Map<String, String> toMap() {
+            var map = new LinkedHashMap<String, String>();
+            for (int field = 0; field < size; field++)
+                map.put(name(field), string(offsets[field * 4 + 2], offsets[field * 4 + 3]));
+            return map;
+        }
+
+        String string(int from, int to) {
+            return new String(buffer, start + from, to - from, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -27,8 +27,12 @@ public class DebPackageConfig {
     @NotNull
     @Valid
     ControlExtras control;
+    /**
+     * not kept in (slim) indexes
+     */
     @NotNull
     @Valid
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     DebFileSpec files;
 
     @JsonTypeInfo(use = JsonTypeInfo.Id.NAME, include = JsonTypeInfo.As.PROPERTY, property = "type")
@@ -184,6 +188,33 @@ public class DebPackageConfig {
         @NotBlank
         @JsonAlias("Description")
         String description = "";
+        /**
+         * control fields that are only listed when set, e.g. by {@link IndexDeb} from a vendor package
+         */
+        @JsonAlias("Pre-Depends")
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        String preDepends;
+        @JsonAlias("Provides")
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        String provides;
+        @JsonAlias("Breaks")
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        String breaks;
+        @JsonAlias("Replaces")
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        String replaces;
+        @JsonAlias("Suggests")
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        String suggests;
+        @JsonAlias("Multi-Arch")
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        String multiArch;
+        @JsonAlias("Essential")
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        String essential;
+        @JsonAlias("Source")
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        String source;
 
         public ControlExtras setSection(String section) {
             this.section = StringUtils.isBlank(section) ? "main" : section;
@@ -205,18 +236,32 @@ public class DebPackageConfig {
                             Priority: %s
                             Homepage: %s
                             Conflicts: %s
-                            Architecture: %s
+                            %sArchitecture: %s
                             Installed-Size: %d
                             Maintainer: %s
                             Description: %s
                             """,
                     // optional fields
                     meta.getName(), meta.getVersion(), depends, recommends, section, priority,
-                    homepage, conflicts, meta.getArch(), installedSize,
+                    homepage, conflicts, optionalFields(), meta.getArch(), installedSize,
                     // required fields
                     maintainer, description
             ).strip() + "\n";
         }
+
+        /**
+         * the optional fields that are set, each on its own line
+         */
+        String optionalFields() {
+            var sb = new StringBuilder();
+            var fields = new String[][]{{"Source", source}, {"Multi-Arch", multiArch}, {"Essential", essential},
+                    {"Pre-Depends", preDepends}, {"Suggests", suggests}, {"Breaks", breaks}, {"Replaces", replaces},
+                    {"Provides", provides}};
+            for (var field : fields)
+                if (field[1] != null)
+                    sb.append(field[0]).append(": ").append(field[1]).append("\n");
+            return sb.toString();
+        }
     }
 
     @Data
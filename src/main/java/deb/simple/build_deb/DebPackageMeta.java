@@ -6,7 +6,21 @@ import lombok.experimental.Accessors;
 @Data
 @Accessors(chain = true)
 public class DebPackageMeta {
+    /**
+     * indexes since this version only keep the package meta and control fields of the config, not its files
+     */
+    public static final int SLIM_SCHEMA_VERSION = 2;
+
+    /**
+     * null for indexes written before the schema was versioned, which hold the complete config
+     */
+    Integer schemaVersion;
     DebPackageConfig debPackageConfig;
     FileIntegrity hashes;
-    Integer size;
+    Long size;
+    /**
+     * location of the .deb relative to the repository root, when it is not in the pool of the codename
+     * (see {@link BuildPackagesIndex#sharedPoolDirectory(String, String)})
+     */
+    String filename;
 }
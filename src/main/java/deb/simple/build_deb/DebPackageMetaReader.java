@@ -0,0 +1,104 @@
+package deb.simple.build_deb;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.exc.MismatchedInputException;
+import lombok.SneakyThrows;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * reads index files of every schema version and {@link IndexFormat} into the slim form
+ * <p>
+ * the index is parsed as a stream of tokens: only the fields {@link BuildPackagesIndex} uses are bound (the
+ * package meta, control fields, hashes and size), every other subtree is skipped without being materialized. in
+ * particular, indexes written before {@link DebPackageMeta#SLIM_SCHEMA_VERSION} hold the complete config, with every
+ * file spec and inline (base64) file content, and cost no more heap than new ones.
+ */
+public class DebPackageMetaReader {
+    final ObjectReader packageMetaReader;
+    final ObjectReader controlReader;
+    final ObjectReader hashesReader;
+
+    public DebPackageMetaReader(ObjectMapper objectMapper) {
+        this.packageMetaReader = objectMapper.readerFor(DebPackageConfig.PackageMeta.class);
+        this.controlReader = objectMapper.readerFor(DebPackageConfig.ControlExtras.class);
+        this.hashesReader = objectMapper.readerFor(FileIntegrity.class);
+    }
+
+    @SneakyThrows
+    public DebPackageMeta read(IndexFormat format, byte[] bytes) {
+        try (var parser = format.getFactory().createParser(bytes)) {
+            return read(parser);
+        }
+    }
+
+    @SneakyThrows
+    public DebPackageMeta read(IndexFormat format, InputStream inputStream) {
+        try (var parser = format.getFactory().createParser(inputStream)) {
+            return read(parser);
+        }
+    }
+
+    public DebPackageMeta read(byte[] bytes) {
+        return read(IndexFormat.json, bytes);
+    }
+
+    /**
+     * @param path an index file, its format is taken from the extension
+     */
+    @SneakyThrows
+    public DebPackageMeta read(Path path) {
+        var format = IndexFormat.of(path.getFileName().toString())
+                .orElseThrow(() -> new IllegalArgumentException("not an index file: " + path));
+        try (var inputStream = Files.newInputStream(path)) {
+            return read(format, inputStream);
+        }
+    }
+
+    DebPackageMeta read(JsonParser parser) throws IOException {
+        expectObject(parser, parser.nextToken());
+        var meta = new DebPackageMeta();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            var field = parser.currentName();
+            var value = parser.nextToken();
+            switch (field) {
+                case "schemaVersion" -> meta.setSchemaVersion(value == JsonToken.VALUE_NULL ? null : parser.getIntValue());
+                case "size" -> meta.setSize(value == JsonToken.VALUE_NULL ? null : parser.getLongValue());
+                case "filename" -> meta.setFilename(parser.getValueAsString());
+                case "hashes" -> meta.setHashes(hashesReader.readValue(parser));
+                case "debPackageConfig" -> meta.setDebPackageConfig(readConfig(parser, value));
+                default -> parser.skipChildren();
+            }
+        }
+        return meta;
+    }
+
+    DebPackageConfig readConfig(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL)
+            return null;
+        expectObject(parser, token);
+        var config = new DebPackageConfig();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            var field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "meta" -> config.setMeta(packageMetaReader.readValue(parser));
+                case "control" -> config.setControl(controlReader.readValue(parser));
+                // files, the bulk of legacy indexes
+                default -> parser.skipChildren();
+            }
+        }
+        return config;
+    }
+
+    static void expectObject(JsonParser parser, JsonToken token) throws MismatchedInputException {
+        if (token != JsonToken.START_OBJECT)
+            throw MismatchedInputException.from(parser, DebPackageMeta.class, "expected an object but found " + token);
+    }
+}
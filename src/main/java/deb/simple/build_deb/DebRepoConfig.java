@@ -1,11 +1,32 @@
 package deb.simple.build_deb;
 
+import deb.simple.DebArch;
 import lombok.Data;
 import lombok.experimental.Accessors;
 
+import java.util.Arrays;
+import java.util.Set;
+import java.util.stream.Collectors;
+
 @Data
 @Accessors(chain = true)
 public class DebRepoConfig {
     String origin;
     String label;
+    /**
+     * how many versions of each package (per architecture) the Packages files list, the latest ones by
+     * {@link DebVersion}. null lists every version in the pool.
+     */
+    Integer retainVersions;
+    /**
+     * the architectures a codename with only Architecture: all packages is published for, as apt does not read
+     * binary-all on its own. null publishes it for every architecture but all.
+     */
+    Set<DebArch> allOnlyArches;
+
+    Set<DebArch> allOnlyArchesOrDefault() {
+        return allOnlyArches != null
+                ? allOnlyArches
+                : Arrays.stream(DebArch.values()).filter(arch -> arch != DebArch.all).collect(Collectors.toSet());
+    }
 }
@@ -0,0 +1,94 @@
+package deb.simple.build_deb;
+
+import java.util.Comparator;
+
+/**
+ * compares debian versions ({@code [epoch:]upstream_version[-debian_revision]}) as dpkg does
+ * <p>
+ * the epoch is compared numerically, then the upstream version and the revision each alternate non digit parts
+ * (compared char by char, letters before other chars, {@code ~} before everything, even the end of the part) and
+ * digit parts (compared numerically, of any length). versions are compared in place, without allocating.
+ */
+public final class DebVersion {
+    public static final Comparator<String> COMPARATOR = DebVersion::compare;
+
+    private DebVersion() {
+    }
+
+    public static int compare(String a, String b) {
+        int aColon = a.indexOf(':');
+        int bColon = b.indexOf(':');
+        // a missing epoch is 0, which compares equal to an empty digit part
+        int result = compareParts(a, 0, Math.max(aColon, 0), b, 0, Math.max(bColon, 0));
+        if (result != 0)
+            return result;
+
+        int aDash = a.lastIndexOf('-');
+        int bDash = b.lastIndexOf('-');
+        int aUpstreamEnd = aDash > aColon ? aDash : a.length();
+        int bUpstreamEnd = bDash > bColon ? bDash : b.length();
+        result = compareParts(a, aColon + 1, aUpstreamEnd, b, bColon + 1, bUpstreamEnd);
+        if (result != 0)
+            return result;
+
+        // a missing revision compares like "0"
+        return compareParts(a, Math.min(aUpstreamEnd + 1, a.length()), a.length(), b, Math.min(bUpstreamEnd + 1, b.length()), b.length());
+    }
+
+    /**
+     * dpkg's verrevcmp over {@code a[aFrom, aTo)} and {@code b[bFrom, bTo)}
+     */
+    static int compareParts(String a, int aFrom, int aTo, String b, int bFrom, int bTo) {
+        int i = aFrom;
+        int j = bFrom;
+        while (i < aTo || j < bTo) {
+            while (i < aTo && !isDigit(a.charAt(i)) || j < bTo && !isDigit(b.charAt(j))) {
+                int aOrder = order(a, i, aTo);
+                int bOrder = order(b, j, bTo);
+                if (aOrder != bOrder)
+                    return Integer.compare(aOrder, bOrder);
+                i++;
+                j++;
+            }
+            while (i < aTo && a.charAt(i) == '0')
+                i++;
+            while (j < bTo && b.charAt(j) == '0')
+                j++;
+            int firstDifference = 0;
+            while (i < aTo && isDigit(a.charAt(i)) && j < bTo && isDigit(b.charAt(j))) {
+                if (firstDifference == 0)
+                    firstDifference = Integer.compare(a.charAt(i), b.charAt(j));
+                i++;
+                j++;
+            }
+            // the longer number is larger
+            if (i < aTo && isDigit(a.charAt(i)))
+                return 1;
+            if (j < bTo && isDigit(b.charAt(j)))
+                return -1;
+            if (firstDifference != 0)
+                return firstDifference;
+        }
+        return 0;
+    }
+
+    /**
+     * the end of the part and digits sort as 0, {@code ~} before them, letters after them, other chars after letters
+     */
+    static int order(String s, int index, int to) {
+        if (index >= to)
+            return 0;
+        char c = s.charAt(index);
+        if (isDigit(c))
+            return 0;
+        if (c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z')
+            return c;
+        if (c == '~')
+            return -1;
+        return c + 256;
+    }
+
+    static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
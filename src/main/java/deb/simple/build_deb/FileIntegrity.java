@@ -2,23 +2,53 @@ package deb.simple.build_deb;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Data;
+import lombok.SneakyThrows;
 import lombok.experimental.Accessors;
 import org.apache.commons.codec.digest.DigestUtils;
 
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 
 @Data
 @Accessors(chain = true)
 public class FileIntegrity {
     @JsonIgnore
     byte[] content;
+    /**
+     * where the content is, when it was too large to keep in memory (see {@link PackagesWriter})
+     */
+    @JsonIgnore
+    Path contentFile;
     String path;
-    int size;
+    long size;
     String md5;
     String sha1;
     String sha256;
     String sha512;
 
+    /**
+     * @return the content, read from {@link #contentFile} if it is not in memory
+     */
+    @SneakyThrows
+    public byte[] getContent() {
+        if (content == null && contentFile != null)
+            return Files.readAllBytes(contentFile);
+        return content;
+    }
+
+    /**
+     * writes the content to the target, without loading it into memory if it is in {@link #contentFile}
+     */
+    @SneakyThrows
+    public void writeContentTo(Path target) {
+        if (content == null && contentFile != null)
+            Files.copy(contentFile, target, StandardCopyOption.REPLACE_EXISTING);
+        else
+            Files.write(target, content);
+    }
+
     public static FileIntegrity of(String content, String path) {
         return FileIntegrity.of(content.getBytes(StandardCharsets.UTF_8), path);
     }
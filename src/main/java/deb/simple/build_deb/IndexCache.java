@@ -0,0 +1,140 @@
+package deb.simple.build_deb;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Data;
+import lombok.SneakyThrows;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * a local cache of parsed index files, keyed by their s3 location and validated by ETag
+ * <p>
+ * index files hardly ever change once uploaded, so a listing whose ETag matches the cached one makes the GET
+ * unnecessary. keys that were not looked up in this run (because they are no longer listed) are evicted with
+ * {@link #evictUnused(String)}.
+ * the cache is a single json file, loaded with {@link #load(Path, ObjectMapper)} and written back with
+ * {@link #save()}. a missing or unreadable file starts an empty cache.
+ */
+@Slf4j
+public class IndexCache {
+    /**
+     * 2: entries are slim indexes, see {@link DebPackageMeta#SLIM_SCHEMA_VERSION}
+     */
+    static final int VERSION = 2;
+
+    final Path file;
+    final ObjectMapper objectMapper;
+    final ConcurrentSkipListMap<String, Entry> entries;
+    final Set<String> used = ConcurrentHashMap.newKeySet();
+    volatile boolean changed;
+
+    IndexCache(Path file, ObjectMapper objectMapper, Map<String, Entry> entries) {
+        this.file = file;
+        this.objectMapper = objectMapper;
+        this.entries = new ConcurrentSkipListMap<>(entries);
+    }
+
+    /**
+     * {@code $XDG_CACHE_HOME/simple-deb-4j/index-cache.json}, or below {@code ~/.cache} without it
+     */
+    public static Path defaultLocation() {
+        var cacheHome = Optional.ofNullable(System.getenv("XDG_CACHE_HOME"))
+                .map(Path::of)
+                .orElseGet(() -> Path.of(System.getProperty("user.home"), ".cache"));
+        return cacheHome.resolve("simple-deb-4j").resolve("index-cache.json");
+    }
+
+    public static IndexCache load(Path file, ObjectMapper objectMapper) {
+        if (!Files.isRegularFile(file))
+            return new IndexCache(file, objectMapper, Map.of());
+        try {
+            var stored = objectMapper.readValue(file.toFile(), Stored.class);
+            if (stored.getVersion() != VERSION) {
+                log.info("ignoring index cache {} of version {}", file, stored.getVersion());
+                return new IndexCache(file, objectMapper, Map.of());
+            }
+            log.debug("loaded {} entries from index cache {}", stored.getEntries().size(), file);
+            return new IndexCache(file, objectMapper, stored.getEntries());
+        } catch (IOException e) {
+            log.warn("ignoring unreadable index cache {}: {}", file, e.toString());
+            return new IndexCache(file, objectMapper, Map.of());
+        }
+    }
+
+    /**
+     * @param key location of the index, e.g. {@code s3://bucket/pool/jammy/hello_0.0.1_amd64.simple-deb-4j-index.json}
+     * @return the cached index, if it was cached with the same ETag
+     */
+    public Optional<DebPackageMeta> get(String key, String eTag) {
+        used.add(key);
+        return Optional.ofNullable(entries.get(key))
+                .filter(entry -> entry.getETag().equals(eTag))
+                .map(Entry::getMeta);
+    }
+
+    public void put(String key, String eTag, DebPackageMeta meta) {
+        used.add(key);
+        var previous = entries.put(key, new Entry().setETag(eTag).setMeta(meta));
+        if (previous == null || !previous.getETag().equals(eTag))
+            changed = true;
+    }
+
+    /**
+     * evicts the keys starting with the prefix that were neither looked up nor put since the cache was loaded
+     */
+    public void evictUnused(String prefix) {
+        var under = entries.subMap(prefix, true, prefix + Character.MAX_VALUE, false).keySet();
+        if (under.removeIf(key -> !used.contains(key)))
+            changed = true;
+    }
+
+    /**
+     * writes the cache if it changed, through a temporary file so a concurrent or interrupted run never sees half
+     * of it
+     */
+    @SneakyThrows
+    public void save() {
+        if (!changed)
+            return;
+        FileUtils.createParentDirectories(file.toFile());
+        var tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            objectMapper.writeValue(tmp.toFile(), new Stored().setVersion(VERSION).setEntries(new TreeMap<>(entries)));
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        changed = false;
+        log.debug("saved {} entries to index cache {}", entries.size(), file);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    @Data
+    @Accessors(chain = true)
+    public static class Entry {
+        String eTag;
+        DebPackageMeta meta;
+    }
+
+    @Data
+    @Accessors(chain = true)
+    public static class Stored {
+        int version;
+        Map<String, Entry> entries = new TreeMap<>();
+    }
+}
@@ -0,0 +1,191 @@
+package deb.simple.build_deb;
+
+import deb.simple.DebArch;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import lombok.SneakyThrows;
+import lombok.experimental.Accessors;
+import org.apache.commons.compress.archivers.ar.ArArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
+import org.apache.commons.io.input.CloseShieldInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * indexes a .deb that was not built from a {@link DebPackageConfig}, e.g. a vendor package
+ * <p>
+ * the .deb is read once, as a stream: it is hashed while its ar members go by, only the {@code control} file of
+ * {@code control.tar.*} is decompressed, {@code data.tar.*} is passed over without being decompressed. memory does
+ * not depend on the size of the .deb.
+ */
+public class IndexDeb {
+    /**
+     * the component the package is listed in, {@link DebPackageConfig.ControlExtras#getSection()} (the Section of
+     * the control file is a category, such as {@code utils}, not a component)
+     */
+    @Getter
+    @Setter
+    @Accessors(chain = true)
+    @NonNull
+    String component = "main";
+
+    /**
+     * @param path of the .deb, for error messages and the path of the hashes
+     */
+    @SneakyThrows
+    public DebPackageMeta index(InputStream deb, String path) {
+        var integrity = new IntegrityOutputStream();
+        var hashing = new HashingInputStream(new BufferedInputStream(deb, 64 * 1024), integrity);
+        DebPackageConfig config = null;
+        var ar = new ArArchiveInputStream(hashing);
+        for (var entry = ar.getNextEntry(); entry != null; entry = ar.getNextEntry()) {
+            if (entry.getName().startsWith("control.tar")) {
+                config = readControlTar(ar, entry.getName());
+            }
+            // other members (debian-binary, data.tar.*) are skipped, reading them through the hash
+        }
+        // trailing bytes after the last member, if any
+        hashing.transferTo(OutputStream.nullOutputStream());
+        if (config == null)
+            throw new IllegalArgumentException("no control.tar member in " + path);
+
+        return new BuildIndex().buildDebIndexToDto(integrity.toFileIntegrity(path), config);
+    }
+
+    @SneakyThrows
+    public DebPackageMeta index(Path deb) {
+        try (var inputStream = Files.newInputStream(deb)) {
+            return index(inputStream, deb.getFileName().toString());
+        }
+    }
+
+    DebPackageConfig readControlTar(InputStream member, String name) throws Exception {
+        // the decompressor must not close the ar stream
+        InputStream shielded = CloseShieldInputStream.wrap(member);
+        var decompressed = name.equals("control.tar")
+                ? shielded
+                : CompressorStreamFactory.getSingleton().createCompressorInputStream(new BufferedInputStream(shielded));
+        try (var tar = new TarArchiveInputStream(decompressed)) {
+            for (var entry = tar.getNextEntry(); entry != null; entry = tar.getNextEntry()) {
+                if (entry.isFile() && (entry.getName().equals("./control") || entry.getName().equals("control")))
+                    return parseControl(tar.readAllBytes());
+            }
+        }
+        throw new IllegalArgumentException("no control file in " + name);
+    }
+
+    DebPackageConfig parseControl(byte[] control) {
+        try (var reader = new Deb822Reader(new ByteArrayInputStream(control))) {
+            if (!reader.next())
+                throw new IllegalArgumentException("empty control file");
+            var stanza = reader.stanza();
+            var meta = new DebPackageConfig.PackageMeta()
+                    .setName(required(stanza, "Package"))
+                    .setVersion(required(stanza, "Version"))
+                    .setArch(arch(required(stanza, "Architecture")));
+            var controlExtras = new DebPackageConfig.ControlExtras()
+                    .setSection(component)
+                    .setMaintainer(required(stanza, "Maintainer"))
+                    .setDescription(required(stanza, "Description"));
+            Optional.ofNullable(stanza.get("Depends")).ifPresent(controlExtras::setDepends);
+            Optional.ofNullable(stanza.get("Recommends")).ifPresent(controlExtras::setRecommends);
+            Optional.ofNullable(stanza.get("Conflicts")).ifPresent(controlExtras::setConflicts);
+            Optional.ofNullable(stanza.get("Homepage")).ifPresent(controlExtras::setHomepage);
+            Optional.ofNullable(stanza.get("Priority")).ifPresent(controlExtras::setPriority);
+            Optional.ofNullable(stanza.get("Installed-Size")).map(String::trim).map(Integer::valueOf).ifPresent(controlExtras::setInstalledSize);
+            Optional.ofNullable(stanza.get("Pre-Depends")).ifPresent(controlExtras::setPreDepends);
+            Optional.ofNullable(stanza.get("Provides")).ifPresent(controlExtras::setProvides);
+            Optional.ofNullable(stanza.get("Breaks")).ifPresent(controlExtras::setBreaks);
+            Optional.ofNullable(stanza.get("Replaces")).ifPresent(controlExtras::setReplaces);
+            Optional.ofNullable(stanza.get("Suggests")).ifPresent(controlExtras::setSuggests);
+            Optional.ofNullable(stanza.get("Multi-Arch")).ifPresent(controlExtras::setMultiArch);
+            Optional.ofNullable(stanza.get("Essential")).ifPresent(controlExtras::setEssential);
+            Optional.ofNullable(stanza.get("Source")).ifPresent(controlExtras::setSource);
+            return new DebPackageConfig().setMeta(meta).setControl(controlExtras);
+        }
+    }
+
+    static DebArch arch(String architecture) {
+        try {
+            return DebArch.valueOf(architecture.trim());
+        } catch (IllegalArgumentException e) {
+            throw new UnsupportedArchitectureException(architecture);
+        }
+    }
+
+    /**
+     * the package is built for an architecture that is not a {@link DebArch}, e.g. i386
+     */
+    public static class UnsupportedArchitectureException extends IllegalArgumentException {
+        @Getter
+        final String architecture;
+
+        UnsupportedArchitectureException(String architecture) {
+            super("unsupported architecture " + architecture);
+            this.architecture = architecture;
+        }
+    }
+
+    static String required(Deb822Reader.Stanza stanza, String field) {
+        var value = stanza.get(field);
+        if (value == null || value.isBlank())
+            throw new IllegalArgumentException("control file has no " + field);
+        return value;
+    }
+
+    /**
+     * passes everything read to the integrity, skipping reads too (so skipped bytes are hashed)
+     */
+    static class HashingInputStream extends FilterInputStream {
+        final IntegrityOutputStream integrity;
+
+        HashingInputStream(InputStream in, IntegrityOutputStream integrity) {
+            super(in);
+            this.integrity = integrity;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0)
+                integrity.write(b);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0)
+                integrity.write(b, off, read);
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            var buffer = new byte[(int) Math.min(n, 8192)];
+            long skipped = 0;
+            while (skipped < n) {
+                int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                if (read < 0)
+                    break;
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package deb.simple.build_deb;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import static deb.simple.build_deb.DebPackageConfig.PackageMeta.SD_INDEX_EXTENSION;
+
+/**
+ * encodings of index files, told apart by their extension
+ * <p>
+ * all hold the same {@link DebPackageMeta}, the binary ones are smaller and cheaper to parse
+ */
+public enum IndexFormat {
+    json(SD_INDEX_EXTENSION, JsonFactory::new),
+    smile(".simple-deb-4j-index.sml", SmileFactory::new),
+    cbor(".simple-deb-4j-index.cbor", CBORFactory::new),
+    ;
+
+    @Getter
+    final String extension;
+    @Getter
+    final JsonFactory factory;
+    @Getter
+    final ObjectMapper objectMapper;
+
+    IndexFormat(String extension, Supplier<JsonFactory> factory) {
+        this.extension = extension;
+        this.factory = factory.get();
+        this.objectMapper = new ObjectMapper(factory.get()).findAndRegisterModules();
+    }
+
+    public String indexFilename(DebPackageConfig.PackageMeta meta) {
+        return meta.getName() + "_" + meta.getVersion() + "_" + meta.getArch() + extension;
+    }
+
+    /**
+     * @return the format of an index file with this name, empty if it is not an index
+     */
+    public static Optional<IndexFormat> of(String filename) {
+        return Arrays.stream(values()).filter(format -> filename.endsWith(format.extension)).findFirst();
+    }
+
+    public static boolean isIndex(String filename) {
+        return of(filename).isPresent();
+    }
+}
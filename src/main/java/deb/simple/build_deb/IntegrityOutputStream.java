@@ -0,0 +1,71 @@
+package deb.simple.build_deb;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+
+/**
+ * computes the {@link FileIntegrity} of everything written through it, without keeping the content
+ */
+public class IntegrityOutputStream extends FilterOutputStream {
+    final MessageDigest md5 = DigestUtils.getMd5Digest();
+    final MessageDigest sha1 = DigestUtils.getSha1Digest();
+    final MessageDigest sha256 = DigestUtils.getSha256Digest();
+    final MessageDigest sha512 = DigestUtils.getSha512Digest();
+    long size;
+
+    public IntegrityOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    /**
+     * only computes hashes
+     */
+    public IntegrityOutputStream() {
+        this(OutputStream.nullOutputStream());
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        md5.update((byte) b);
+        sha1.update((byte) b);
+        sha256.update((byte) b);
+        sha512.update((byte) b);
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        md5.update(b, off, len);
+        sha1.update(b, off, len);
+        sha256.update(b, off, len);
+        sha512.update(b, off, len);
+        size += len;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * completes the digests, so this can only be called once
+     *
+     * @return integrity of the written bytes, without content
+     */
+    public FileIntegrity toFileIntegrity(String path) {
+        return new FileIntegrity()
+                .setPath(path)
+                .setSize(size)
+                .setMd5(Hex.encodeHexString(md5.digest()))
+                .setSha1(Hex.encodeHexString(sha1.digest()))
+                .setSha256(Hex.encodeHexString(sha256.digest()))
+                .setSha512(Hex.encodeHexString(sha512.digest()))
+                ;
+    }
+}
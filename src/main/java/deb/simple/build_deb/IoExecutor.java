@@ -0,0 +1,188 @@
+package deb.simple.build_deb;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.Assert;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * runs blocking i/o calls (s3 requests, file reads) with bounded concurrency
+ * <p>
+ * calls run on virtual threads, at most {@link #maxInFlight} at once, so throughput follows the configured
+ * concurrency rather than the number of cores. as they are virtual threads, a call may wait for other calls (e.g.
+ * a codename listing for its fetches) without starving them. the latency of every call is recorded per operation,
+ * see {@link #report()}.
+ * <p>
+ * retries are left to the retry strategy of the s3 client, which backs off on throttling. a call that still fails
+ * because the server is throttling (s3 {@code SlowDown}, http 503 or 429) halves the concurrency limit, and every
+ * {@code limit} successful calls raise it by one again, up to {@link #maxInFlight}.
+ */
+@Slf4j
+public class IoExecutor implements AutoCloseable {
+    public static final int DEFAULT_MAX_IN_FLIGHT = 64;
+
+    @Getter
+    final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    @Getter
+    final int maxInFlight;
+    final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    final LongAdder throttled = new LongAdder();
+
+    final ReentrantLock lock = new ReentrantLock();
+    final Condition available = lock.newCondition();
+    int limit;
+    int inFlight;
+    int successesSinceIncrease;
+
+    public IoExecutor(int maxInFlight) {
+        Assert.isTrue(maxInFlight > 0, "need at least one call in flight");
+        this.maxInFlight = maxInFlight;
+        this.limit = maxInFlight;
+    }
+
+    /**
+     * runs {@link #call(String, Supplier)} on the executor
+     */
+    public <T> CompletableFuture<T> submit(String operation, Supplier<T> call) {
+        return CompletableFuture.supplyAsync(() -> call(operation, call), executor);
+    }
+
+    /**
+     * runs the call on the current thread once a slot is free
+     *
+     * @param operation name the latency is recorded under
+     */
+    public <T> T call(String operation, Supplier<T> call) {
+        var histogram = histograms.computeIfAbsent(operation, ignored -> new LatencyHistogram());
+        acquire();
+        boolean wasThrottled = false;
+        long start = System.nanoTime();
+        try {
+            return call.get();
+        } catch (RuntimeException e) {
+            if (isThrottling(e)) {
+                wasThrottled = true;
+                throttled.increment();
+                log.debug("{} still throttled after the retries of the client, lowering the concurrency limit", operation);
+            }
+            throw e;
+        } finally {
+            histogram.record(System.nanoTime() - start);
+            release(wasThrottled);
+        }
+    }
+
+    static boolean isThrottling(Throwable e) {
+        if (!(e instanceof AwsServiceException serviceException))
+            return false;
+        return serviceException.statusCode() == 503
+                || serviceException.isThrottlingException()
+                || serviceException.awsErrorDetails() != null && "SlowDown".equals(serviceException.awsErrorDetails().errorCode());
+    }
+
+    void acquire() {
+        lock.lock();
+        try {
+            while (inFlight >= limit)
+                available.awaitUninterruptibly();
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void release(boolean wasThrottled) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (wasThrottled) {
+                limit = Math.max(1, limit / 2);
+                successesSinceIncrease = 0;
+            } else if (limit < maxInFlight && ++successesSinceIncrease >= limit) {
+                limit++;
+                successesSinceIncrease = 0;
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int currentLimit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return count and latency percentiles per operation, and how many calls were throttled
+     */
+    public String report() {
+        var operations = new TreeMap<>(histograms).entrySet().stream()
+                .map(e -> e.getKey() + ": " + e.getValue())
+                .collect(Collectors.joining(", "));
+        return operations + " (throttled " + throttled.sum() + ", concurrency limit " + currentLimit() + "/" + maxInFlight + ")";
+    }
+
+    @Override
+    public void close() {
+        executor.close();
+    }
+
+    /**
+     * latencies in power of two buckets of microseconds: bucket {@code i} holds latencies below {@code 2^i} µs
+     */
+    static class LatencyHistogram {
+        static final int BUCKETS = 40;
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        final LongAdder count = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+
+        void record(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets.incrementAndGet(bucket);
+            count.increment();
+            totalNanos.add(nanos);
+        }
+
+        /**
+         * @return upper bound of the bucket holding the percentile
+         */
+        Duration percentile(double percentile) {
+            long total = count.sum();
+            long rank = (long) Math.ceil(total * percentile);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank && seen > 0)
+                    return Duration.ofNanos(1000L << i);
+            }
+            return Duration.ZERO;
+        }
+
+        @Override
+        public String toString() {
+            long total = count.sum();
+            return "n=" + total
+                    + " mean=" + (total == 0 ? 0 : totalNanos.sum() / total / 1_000_000) + "ms"
+                    + " p50<=" + percentile(0.5).toMillis() + "ms"
+                    + " p90<=" + percentile(0.9).toMillis() + "ms"
+                    + " p99<=" + percentile(0.99).toMillis() + "ms";
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package deb.simple.build_deb;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Packages files already written, by a digest of their path and stanzas
+ * <p>
+ * codenames that publish the same packages from a shared pool (see {@link DebPackageMeta#getFilename()}) get the
+ * same stanzas, so the Packages file of the first codename is compressed and hashed once and reused by the others.
+ * packages in the pool of their codename differ by the {@code Filename:} of their stanza, and are not shared. a
+ * codename asking for a file another thread is writing waits for it instead of writing it again.
+ */
+public class PackagesMemo {
+    final Map<String, CompletableFuture<Written>> written = new ConcurrentHashMap<>();
+    final LongAdder hits = new LongAdder();
+
+    public record Written(FileIntegrity packages, FileIntegrity packagesGz) {
+    }
+
+    /**
+     * @param path    of the Packages file within the codename, e.g. {@code main/binary-amd64/Packages}
+     * @param stanzas of the Packages file, in order
+     */
+    public Written write(String path, List<byte[]> stanzas) {
+        var key = key(path, stanzas);
+        var future = new CompletableFuture<Written>();
+        var existing = written.putIfAbsent(key, future);
+        if (existing != null) {
+            hits.increment();
+            return existing.join();
+        }
+        try (var writer = new PackagesWriter(path)) {
+            stanzas.forEach(writer::writeStanza);
+            future.complete(new Written(writer.getPackages(), writer.getPackagesGz()));
+        } catch (Throwable t) {
+            written.remove(key);
+            future.completeExceptionally(t);
+            throw t;
+        }
+        return future.join();
+    }
+
+    static String key(String path, List<byte[]> stanzas) {
+        var digest = DigestUtils.getSha256Digest();
+        digest.update(path.getBytes(StandardCharsets.UTF_8));
+        for (var stanza : stanzas) {
+            // the separator PackagesWriter writes, so stanza boundaries are part of the key
+            digest.update((byte) '\n');
+            digest.update(stanza);
+        }
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    /**
+     * @return how many Packages files were reused instead of written
+     */
+    public long hits() {
+        return hits.sum();
+    }
+}
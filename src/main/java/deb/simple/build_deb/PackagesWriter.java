@@ -0,0 +1,115 @@
+package deb.simple.build_deb;
+
+import lombok.SneakyThrows;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+import org.apache.commons.io.output.TeeOutputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * writes a Packages file and its gzip compressed variant in one pass
+ * <p>
+ * stanzas go through a tee: one side hashes the plain file, the other compresses it and hashes the compressed
+ * bytes. neither file is kept as a whole in memory: each stays in memory up to the spill threshold and
+ * spills to a temporary file beyond that (see {@link FileIntegrity#getContentFile()}).
+ */
+public class PackagesWriter implements Closeable {
+    public static final int DEFAULT_SPILL_THRESHOLD = 8 * 1024 * 1024;
+    static final byte[] SEPARATOR = {'\n'};
+
+    final String path;
+    final DeferredFileOutputStream plain;
+    final DeferredFileOutputStream compressed;
+    final IntegrityOutputStream plainIntegrity;
+    final IntegrityOutputStream compressedIntegrity;
+    final GZIPOutputStream gzip;
+    final OutputStream tee;
+    boolean first = true;
+    FileIntegrity packages;
+    FileIntegrity packagesGz;
+
+    /**
+     * @param path path of the Packages file, the compressed one gets {@code .gz} appended
+     */
+    @SneakyThrows
+    public PackagesWriter(String path, int spillThreshold) {
+        this.path = path;
+        this.plain = spillingStream(spillThreshold);
+        this.compressed = spillingStream(spillThreshold);
+        this.plainIntegrity = new IntegrityOutputStream(plain);
+        this.compressedIntegrity = new IntegrityOutputStream(compressed);
+        this.gzip = new GZIPOutputStream(compressedIntegrity);
+        this.tee = new BufferedOutputStream(new TeeOutputStream(plainIntegrity, gzip), 64 * 1024);
+    }
+
+    public PackagesWriter(String path) {
+        this(path, DEFAULT_SPILL_THRESHOLD);
+    }
+
+    static DeferredFileOutputStream spillingStream(int threshold) {
+        return DeferredFileOutputStream.builder()
+                .setThreshold(threshold)
+                .setPrefix("simple-deb-Packages-")
+                .setSuffix(".tmp")
+                .get();
+    }
+
+    /**
+     * stanzas are separated by an empty line
+     */
+    public PackagesWriter writeStanza(String stanza) {
+        return writeStanza(stanza.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @SneakyThrows
+    public PackagesWriter writeStanza(byte[] stanza) {
+        if (!first)
+            tee.write(SEPARATOR);
+        first = false;
+        tee.write(stanza);
+        return this;
+    }
+
+    @SneakyThrows
+    @Override
+    public void close() {
+        if (packages != null)
+            return;
+        // closes gzip (writing its trailer) and the plain file
+        tee.close();
+        packages = result(plainIntegrity, plain, path);
+        packagesGz = result(compressedIntegrity, compressed, path + ".gz");
+    }
+
+    static FileIntegrity result(IntegrityOutputStream integrity, DeferredFileOutputStream stream, String path) {
+        var result = integrity.toFileIntegrity(path);
+        if (stream.isInMemory()) {
+            result.setContent(stream.getData());
+        } else {
+            var file = stream.getPath();
+            file.toFile().deleteOnExit();
+            result.setContentFile(file);
+        }
+        return result;
+    }
+
+    /**
+     * @return the Packages file, once closed
+     */
+    public FileIntegrity getPackages() {
+        close();
+        return packages;
+    }
+
+    /**
+     * @return the Packages.gz file, once closed
+     */
+    public FileIntegrity getPackagesGz() {
+        close();
+        return packagesGz;
+    }
+}
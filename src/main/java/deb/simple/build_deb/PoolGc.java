@@ -0,0 +1,380 @@
+package deb.simple.build_deb;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import deb.simple.DebArch;
+import deb.simple.build_deb.BuildRepository.RepoBuilder.CodenameSectionBuilder;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * deletes what no retained index references from a pool: index files dropped by the retention policy, and .deb
+ * files no retained index lists (see {@link BuildPackagesIndex#filename(DebPackageMeta)})
+ * <p>
+ * objects younger than the grace period are kept, a build uploads its .deb before its index, and may still be
+ * running. other files (e.g. {@link PoolManifest}s) are never deleted. codenames with a manifest get a segment
+ * removing the deleted indexes, before the indexes are deleted.
+ * <p>
+ * the Filename of an index is resolved against the path of the pool in the repository. if one is not below it, the
+ * .deb it lists is unknown: nothing is deleted from its codename, nor any .deb from the shared pool.
+ */
+@Slf4j
+public class PoolGc {
+    public static final String DEFAULT_POOL_PREFIX = "pool/";
+
+    final Pool pool;
+    final IoExecutor ioExecutor;
+    /**
+     * path of the pool relative to the repository root, the Filename of each package starts with it
+     */
+    final String poolPrefix;
+
+    public PoolGc(Pool pool, IoExecutor ioExecutor) {
+        this(pool, ioExecutor, DEFAULT_POOL_PREFIX);
+    }
+
+    public PoolGc(Pool pool, IoExecutor ioExecutor, String poolPrefix) {
+        this.pool = pool;
+        this.ioExecutor = ioExecutor;
+        this.poolPrefix = poolPrefix;
+    }
+
+    /**
+     * @param key relative to the pool, e.g. {@code jammy/hello_0.0.1_amd64.deb}
+     */
+    public record PoolObject(String key, long size, Instant lastModified) {
+        String codename() {
+            return StringUtils.substringBefore(key, "/");
+        }
+    }
+
+    /**
+     * @param deleted what was deleted, or would be deleted by a dry run
+     * @param failed  keys that could not be deleted
+     */
+    public record Report(List<PoolObject> deleted, long bytes, int indexes, int retainedIndexes, List<String> failed) {
+    }
+
+    record CodenameBucket(String codename, String component, DebArch arch) {
+    }
+
+    /**
+     * @param size of the source, or negative if unknown
+     */
+    public record PoolCopy(String sourceKey, String targetKey, long size) {
+    }
+
+    /**
+     * the objects of a pool, keyed relative to it
+     */
+    public interface Pool {
+        /**
+         * @return every object whose key starts with the prefix, empty for the whole pool
+         */
+        List<PoolObject> list(String prefix);
+
+        DebPackageMeta readIndex(PoolObject index);
+
+        /**
+         * @return keys that could not be deleted
+         */
+        List<String> delete(List<String> keys);
+
+        /**
+         * overwrites existing targets
+         */
+        void copy(List<PoolCopy> copies);
+
+        /**
+         * overwrites an existing object
+         */
+        void write(String key, byte[] content);
+
+        /**
+         * updates the manifest of a codename, if it has one, with index keys (a null meta removes the key)
+         */
+        default void updateManifest(String codename, Map<String, DebPackageMeta> entries) {
+        }
+    }
+
+    /**
+     * @param retainVersions how many versions of each package (per component and arch) each codename keeps, null
+     *                       keeps every indexed version and only collects .deb files no index lists
+     * @param grace          objects modified more recently are kept
+     * @param dryRun         only report what would be deleted
+     */
+    public Report collect(Integer retainVersions, Duration grace, boolean dryRun) {
+        var objects = pool.list("");
+        var indexes = objects.stream()
+                .filter(object -> object.key().contains("/") && IndexFormat.isIndex(StringUtils.substringAfterLast(object.key(), "/")))
+                .toList();
+        var reads = indexes.stream()
+                .map(index -> ioExecutor.submit("ReadIndex", () -> pool.readIndex(index)))
+                .toList();
+        var indexKeys = new HashSet<String>(indexes.size() * 2);
+        indexes.forEach(index -> indexKeys.add(index.key()));
+
+        // per codename and Packages file, as the repository lists them
+        var buckets = new HashMap<CodenameBucket, List<Map.Entry<PoolObject, DebPackageMeta>>>();
+        for (int i = 0; i < indexes.size(); i++) {
+            var index = indexes.get(i);
+            var meta = reads.get(i).join();
+            var bucket = new CodenameBucket(index.codename(), meta.getDebPackageConfig().getControl().getSection(), meta.getDebPackageConfig().getMeta().getArch());
+            buckets.computeIfAbsent(bucket, ignored -> new ArrayList<>()).add(Map.entry(index, meta));
+        }
+
+        var retained = new HashSet<String>();
+        var referenced = new HashSet<String>();
+        // a Filename outside the pool of each codename that has one
+        var unresolved = new TreeMap<String, String>();
+        buckets.values().forEach(entries -> {
+            entries.sort(Map.Entry.comparingByValue(CodenameSectionBuilder.STANZA_ORDER));
+            var keep = Collections.<DebPackageMeta>newSetFromMap(new IdentityHashMap<>());
+            keep.addAll(CodenameSectionBuilder.retain(entries.stream().map(Map.Entry::getValue).toList(), retainVersions));
+            for (var entry : entries) {
+                if (keep.contains(entry.getValue())) {
+                    var codename = entry.getKey().codename();
+                    retained.add(entry.getKey().key());
+                    debKey(poolPrefix, codename, entry.getValue()).ifPresentOrElse(referenced::add,
+                            () -> unresolved.putIfAbsent(codename, entry.getValue().getFilename()));
+                }
+            }
+        });
+        unresolved.forEach((codename, filename) -> log.warn("not deleting anything from {}: the Filename {} of one of its indexes is not below the pool prefix {}",
+                codename, filename, poolPrefix));
+        var indexedCodenames = new HashSet<String>();
+        indexes.forEach(index -> indexedCodenames.add(index.codename()));
+
+        var cutoff = Instant.now().minus(grace);
+        var garbage = objects.stream()
+                .filter(object -> object.lastModified().isBefore(cutoff))
+                // the shared pool has no indexes, its .deb files are only referenced by Filenames
+                .filter(object -> !unresolved.containsKey(object.codename()) && (unresolved.isEmpty() || indexedCodenames.contains(object.codename())))
+                .filter(object -> indexKeys.contains(object.key())
+                        ? !retained.contains(object.key())
+                        : object.key().endsWith(".deb") && !referenced.contains(object.key()))
+                .toList();
+        long bytes = garbage.stream().mapToLong(PoolObject::size).sum();
+        log.info("{} of {} indexes are retained, {} objects ({} bytes) are garbage{}",
+                retained.size(), indexes.size(), garbage.size(), bytes, dryRun ? " (dry run, nothing is deleted)" : "");
+        garbage.forEach(object -> log.info("{}{}", dryRun ? "would delete " : "deleting ", object.key()));
+        if (dryRun)
+            return new Report(garbage, bytes, indexes.size(), retained.size(), List.of());
+
+        // a null meta removes the index from the manifest (a TreeMap, unlike Map.of, takes null values)
+        var garbageIndexes = new TreeMap<String, Map<String, DebPackageMeta>>();
+        garbage.stream().filter(object -> indexKeys.contains(object.key()))
+                .forEach(index -> garbageIndexes.computeIfAbsent(index.codename(), ignored -> new TreeMap<>()).put(index.key(), null));
+        garbageIndexes.forEach(pool::updateManifest);
+
+        var failed = pool.delete(garbage.stream().map(PoolObject::key).toList());
+        if (!failed.isEmpty())
+            log.warn("could not delete {} objects: {}", failed.size(), failed);
+        log.info("deleted {} objects, i/o: {}", garbage.size() - failed.size(), ioExecutor.report());
+        return new Report(garbage, bytes, indexes.size(), retained.size(), failed);
+    }
+
+    /**
+     * @param poolPrefix path of the pool relative to the repository root, e.g. {@code pool/}
+     * @return key of the .deb relative to the pool, empty if its Filename is not below the pool prefix
+     */
+    static Optional<String> debKey(String poolPrefix, String codename, DebPackageMeta meta) {
+        if (meta.getFilename() == null)
+            return Optional.of(codename + "/" + meta.getDebPackageConfig().getMeta().getDebFilename());
+        var prefix = poolPrefix.isEmpty() ? "" : StringUtils.appendIfMissing(poolPrefix, "/");
+        return meta.getFilename().startsWith(prefix)
+                ? Optional.of(meta.getFilename().substring(prefix.length()))
+                : Optional.empty();
+    }
+
+    /**
+     * a pool in the local filesystem, as read by {@link BuildRepositoryIO.FileBrIo}
+     */
+    public static class FilePool implements Pool {
+        final Path root;
+        final IoExecutor ioExecutor;
+        final DebPackageMetaReader metaReader;
+
+        public FilePool(Path root, ObjectMapper objectMapper, IoExecutor ioExecutor) {
+            this.root = root;
+            this.ioExecutor = ioExecutor;
+            this.metaReader = new DebPackageMetaReader(objectMapper);
+        }
+
+        @SneakyThrows
+        @Override
+        public List<PoolObject> list(String prefix) {
+            var dir = root.resolve(prefix);
+            if (!Files.isDirectory(dir))
+                return List.of();
+            try (var files = Files.walk(dir)) {
+                return files.filter(Files::isRegularFile)
+                        .map(this::poolObject)
+                        .toList();
+            }
+        }
+
+        @SneakyThrows
+        PoolObject poolObject(Path file) {
+            return new PoolObject(StringUtils.replaceChars(root.relativize(file).toString(), '\\', '/'),
+                    Files.size(file), Files.getLastModifiedTime(file).toInstant());
+        }
+
+        @Override
+        public DebPackageMeta readIndex(PoolObject index) {
+            return metaReader.read(root.resolve(index.key()));
+        }
+
+        @Override
+        public List<String> delete(List<String> keys) {
+            var failed = new ArrayList<String>();
+            for (var key : keys) {
+                try {
+                    Files.deleteIfExists(root.resolve(key));
+                } catch (Exception e) {
+                    log.warn("could not delete {}", key, e);
+                    failed.add(key);
+                }
+            }
+            return failed;
+        }
+
+        @Override
+        public void copy(List<PoolCopy> copies) {
+            copies.stream()
+                    .map(copy -> ioExecutor.submit("CopyFile", () -> copyFile(copy)))
+                    .toList()
+                    .forEach(CompletableFuture::join);
+        }
+
+        @SneakyThrows
+        Path copyFile(PoolCopy copy) {
+            var target = root.resolve(copy.targetKey());
+            Files.createDirectories(target.getParent());
+            // not preserving the modification time, gc keeps fresh copies for the grace period
+            return Files.copy(root.resolve(copy.sourceKey()), target, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        @SneakyThrows
+        @Override
+        public void write(String key, byte[] content) {
+            var target = root.resolve(key);
+            Files.createDirectories(target.getParent());
+            Files.write(target, content);
+        }
+    }
+
+    /**
+     * a pool in s3, as read by {@link BuildRepositoryIO.S3BrIo}. deletes run as {@code DeleteObjects} batches of up to
+     * {@link #MAX_DELETE_BATCH} keys, concurrently on the {@link IoExecutor}.
+     */
+    public static class S3Pool implements Pool {
+        public static final int MAX_DELETE_BATCH = 1000;
+
+        final S3Client s3Client;
+        final IoExecutor ioExecutor;
+        final ObjectMapper objectMapper;
+        final DebPackageMetaReader metaReader;
+        final String bucket;
+        /**
+         * key prefix of the pool, empty or ending with '/'
+         */
+        final String prefix;
+
+        public S3Pool(S3Client s3Client, IoExecutor ioExecutor, ObjectMapper objectMapper, String bucket, String prefix) {
+            this.s3Client = s3Client;
+            this.ioExecutor = ioExecutor;
+            this.objectMapper = objectMapper;
+            this.metaReader = new DebPackageMetaReader(objectMapper);
+            this.bucket = bucket;
+            this.prefix = prefix;
+        }
+
+        @Override
+        public List<PoolObject> list(String keyPrefix) {
+            var result = new ArrayList<PoolObject>();
+            String token = null;
+            do {
+                var request = ListObjectsV2Request.builder().bucket(bucket).prefix(prefix + keyPrefix).continuationToken(token).build();
+                var page = ioExecutor.call("ListObjectsV2", () -> s3Client.listObjectsV2(request));
+                page.contents().forEach(object -> result.add(new PoolObject(object.key().substring(prefix.length()), object.size(), object.lastModified())));
+                token = page.nextContinuationToken();
+            } while (token != null);
+            return result;
+        }
+
+        @SneakyThrows
+        @Override
+        public DebPackageMeta readIndex(PoolObject index) {
+            try (var object = s3Client.getObject(GetObjectRequest.builder().bucket(bucket).key(prefix + index.key()).build())) {
+                return metaReader.read(IndexFormat.of(index.key()).orElseThrow(), object);
+            }
+        }
+
+        @Override
+        public List<String> delete(List<String> keys) {
+            var batches = new ArrayList<CompletableFuture<List<String>>>();
+            for (int from = 0; from < keys.size(); from += MAX_DELETE_BATCH) {
+                var batch = keys.subList(from, Math.min(keys.size(), from + MAX_DELETE_BATCH));
+                batches.add(ioExecutor.submit("DeleteObjects", () -> deleteBatch(batch)));
+            }
+            return batches.stream().flatMap(batch -> batch.join().stream()).toList();
+        }
+
+        List<String> deleteBatch(List<String> keys) {
+            var response = s3Client.deleteObjects(DeleteObjectsRequest.builder()
+                    .bucket(bucket)
+                    .delete(Delete.builder()
+                            .quiet(true)
+                            .objects(keys.stream().map(key -> ObjectIdentifier.builder().key(prefix + key).build()).toList())
+                            .build())
+                    .build());
+            response.errors().forEach(error -> log.warn("could not delete s3://{}/{}: {} {}", bucket, error.key(), error.code(), error.message()));
+            return response.errors().stream().map(error -> error.key().substring(prefix.length())).toList();
+        }
+
+        /**
+         * server side, see {@link S3Copies}
+         */
+        @Override
+        public void copy(List<PoolCopy> copies) {
+            new S3Copies(s3Client, ioExecutor.getExecutor(), ioExecutor.getMaxInFlight()).copyAll(copies.stream()
+                    .map(copy -> new S3Copies.Copy(bucket, prefix + copy.sourceKey(), prefix + copy.targetKey(), copy.size()))
+                    .toList());
+        }
+
+        @Override
+        public void write(String key, byte[] content) {
+            ioExecutor.call("PutObject", () -> s3Client.putObject(PutObjectRequest.builder()
+                            .bucket(bucket)
+                            .key(prefix + key)
+                            .build(),
+                    RequestBody.fromBytes(content)));
+        }
+
+        /**
+         * only codenames that have a manifest get a segment, the others are read from their index files and there
+         * is no need to seed a manifest for them here
+         */
+        @Override
+        public void updateManifest(String codename, Map<String, DebPackageMeta> entries) {
+            var manifest = new PoolManifest(s3Client, ioExecutor, objectMapper, bucket, prefix + codename + "/");
+            if (manifest.read().isEmpty())
+                return;
+            var keyed = new TreeMap<String, DebPackageMeta>();
+            entries.forEach((key, meta) -> keyed.put(prefix + key, meta));
+            manifest.append(keyed);
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package deb.simple.build_deb;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Data;
+import lombok.SneakyThrows;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * the index metadata of every package of one codename, so reading a codename takes a few requests instead of one
+ * per package
+ * <p>
+ * stored under {@code <pool>/<codename>/.simple-deb-4j-manifest/} as an append only log: every build adds a
+ * {@code segment-<sequence>.json} with the indexes it uploaded (keyed by the s3 key of the index file, a null meta
+ * removes the entry). segments are created with {@code If-None-Match: *}, so concurrent builders never overwrite
+ * each other, the loser of a race retries with the next sequence. every {@link #COMPACT_AFTER} segments the whole
+ * state is written to {@code snapshot-<sequence>.json}, covering all segments up to that sequence, and the
+ * segments covered by the previous snapshot are deleted. the sequence of a snapshot is first taken by an empty
+ * segment, so every lower sequence is taken too: a build that picked one of them but has not written it yet loses
+ * the race and appends above the snapshot, where readers see it.
+ * <p>
+ * the index files themselves stay in the pool, {@link #rebuild(Supplier)} recreates the manifest from them. the
+ * first append to a codename without a manifest does so too, a manifest listing only the appended entries would
+ * hide every index uploaded before it. a prefix without index files (e.g. a directory of the shared pool) never gets
+ * a manifest.
+ */
+@Slf4j
+public class PoolManifest {
+    public static final String MANIFEST_DIRECTORY = ".simple-deb-4j-manifest/";
+    static final String SEGMENT = "segment-";
+    static final String SNAPSHOT = "snapshot-";
+    static final String EXTENSION = ".json";
+    static final int COMPACT_AFTER = 64;
+    static final int MAX_APPEND_ATTEMPTS = 20;
+    static final byte[] EMPTY_SEGMENT = "{}".getBytes(StandardCharsets.UTF_8);
+
+    final S3Client s3Client;
+    final IoExecutor ioExecutor;
+    final ObjectMapper objectMapper;
+    final String bucket;
+    final String codenamePrefix;
+    /**
+     * the manifest directory, ending with a slash
+     */
+    final String prefix;
+
+    /**
+     * @param codenamePrefix key prefix of the codename in the pool, e.g. {@code dist/pool/jammy/}
+     */
+    public PoolManifest(S3Client s3Client, IoExecutor ioExecutor, ObjectMapper objectMapper, String bucket, String codenamePrefix) {
+        this.s3Client = s3Client;
+        this.ioExecutor = ioExecutor;
+        this.objectMapper = objectMapper;
+        this.bucket = bucket;
+        this.codenamePrefix = codenamePrefix;
+        this.prefix = codenamePrefix + MANIFEST_DIRECTORY;
+    }
+
+    /**
+     * @return index metadata by index key, or empty if the codename has no manifest
+     */
+    public Optional<Map<String, DebPackageMeta>> read() {
+        return read(Long.MAX_VALUE);
+    }
+
+    /**
+     * @param below only the snapshots and segments below this sequence
+     */
+    Optional<Map<String, DebPackageMeta>> read(long below) {
+        try {
+            return readOnce(below);
+        } catch (NoSuchKeyException e) {
+            // a concurrent compaction deleted a segment between listing and reading it
+            log.debug("manifest s3://{}/{} changed while reading, reading again", bucket, prefix);
+            return readOnce(below);
+        }
+    }
+
+    Optional<Map<String, DebPackageMeta>> readOnce(long below) {
+        var listing = list();
+        if (listing.isEmpty())
+            return Optional.empty();
+
+        var state = new TreeMap<String, DebPackageMeta>();
+        long snapshotSequence = listing.snapshots().stream().filter(sequence -> sequence < below).reduce(-1L, Long::max);
+        if (snapshotSequence >= 0)
+            state.putAll(get(key(SNAPSHOT, snapshotSequence), new TypeReference<Snapshot>() {
+            }).getEntries());
+
+        var segments = listing.segments().stream()
+                .filter(sequence -> sequence > snapshotSequence && sequence < below)
+                .map(sequence -> ioExecutor.submit("GetObject", () -> get(key(SEGMENT, sequence), new TypeReference<TreeMap<String, DebPackageMeta>>() {
+                })))
+                .toList();
+        try {
+            // in sequence order, later segments win
+            segments.stream().map(CompletableFuture::join).forEach(segment -> apply(state, segment));
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+        log.debug("read manifest s3://{}/{} with {} entries from snapshot {} and {} segments",
+                bucket, prefix, state.size(), snapshotSequence, segments.size());
+        return Optional.of(state);
+    }
+
+    static void apply(Map<String, DebPackageMeta> state, Map<String, DebPackageMeta> segment) {
+        segment.forEach((key, meta) -> {
+            if (meta == null)
+                state.remove(key);
+            else
+                state.put(key, meta);
+        });
+    }
+
+    /**
+     * adds a segment with the given entries (a null meta removes the index key), compacting if enough segments
+     * piled up. if the codename has no manifest yet, it is first rebuilt from the index files in the pool, which
+     * include those of the entries, as they are uploaded before they are appended.
+     *
+     * @return sequence of the new segment, -1 if nothing was appended as the prefix has no index files
+     */
+    @SneakyThrows
+    public long append(Map<String, DebPackageMeta> entries) {
+        var body = objectMapper.writeValueAsBytes(new TreeMap<>(entries));
+        var listing = list();
+        if (listing.isEmpty()) {
+            log.info("no manifest s3://{}/{} yet, seeding it from the index files of s3://{}/{}", bucket, prefix, bucket, codenamePrefix);
+            rebuild(this::readIndexes);
+            listing = list();
+            if (listing.isEmpty()) {
+                log.warn("no index files under s3://{}/{}, not appending {} entries to a manifest", bucket, codenamePrefix, entries.size());
+                return -1;
+            }
+        }
+        long sequence = putSegment(listing.lastSequence() + 1, body);
+        log.info("appended segment {} with {} entries to manifest s3://{}/{}", sequence, entries.size(), bucket, prefix);
+
+        if (sequence - Math.max(0, listing.lastSnapshot()) >= COMPACT_AFTER)
+            compact();
+        return sequence;
+    }
+
+    /**
+     * writes the segment at the first free sequence from {@code sequence} on
+     *
+     * @return sequence of the segment
+     */
+    long putSegment(long sequence, byte[] body) {
+        for (int attempt = 1; ; attempt++) {
+            if (putIfAbsent(key(SEGMENT, sequence), body))
+                return sequence;
+            if (attempt >= MAX_APPEND_ATTEMPTS)
+                throw new IllegalStateException("could not append to manifest s3://" + bucket + "/" + prefix
+                        + " after " + attempt + " attempts, too many concurrent builds");
+            log.debug("manifest segment {} of s3://{}/{} was taken by another build, trying the next", sequence, bucket, prefix);
+            sequence++;
+        }
+    }
+
+    /**
+     * writes a snapshot of the current state and deletes what the previous snapshot already covered
+     */
+    public void compact() {
+        var listing = list();
+        if (listing.lastSegment() <= listing.lastSnapshot())
+            return;
+        long sequence = putSegment(listing.lastSequence() + 1, EMPTY_SEGMENT);
+        var state = read(sequence).orElseThrow();
+        put(key(SNAPSHOT, sequence), snapshotBytes(sequence, state));
+        log.info("compacted manifest s3://{}/{} into snapshot {} with {} entries", bucket, prefix, sequence, state.size());
+
+        // readers that listed before this snapshot may still be reading the previous one and its segments
+        long previous = listing.lastSnapshot();
+        var obsolete = new ArrayList<String>();
+        listing.snapshots().stream().filter(s -> s < previous).forEach(s -> obsolete.add(key(SNAPSHOT, s)));
+        listing.segments().stream().filter(s -> s <= previous).forEach(s -> obsolete.add(key(SEGMENT, s)));
+        delete(obsolete);
+    }
+
+    /**
+     * replaces the manifest with the state read from the index files. a prefix without index files gets no manifest,
+     * an existing one is deleted.
+     *
+     * @param indexes reads the index files, called after the sequence of the new snapshot was taken: the snapshot
+     *                covers every segment below it, each of those exists at that point and was appended after its
+     *                index file was uploaded
+     * @return the state that was written
+     */
+    public Map<String, DebPackageMeta> rebuild(Supplier<Map<String, DebPackageMeta>> indexes) {
+        var listing = list();
+        if (listing.isEmpty() && !hasIndexFiles()) {
+            log.info("no index files under s3://{}/{}, not creating a manifest", bucket, codenamePrefix);
+            return Map.of();
+        }
+        long sequence = putSegment(listing.lastSequence() + 1, EMPTY_SEGMENT);
+        var state = indexes.get();
+
+        var obsolete = new ArrayList<String>();
+        listing.snapshots().forEach(s -> obsolete.add(key(SNAPSHOT, s)));
+        listing.segments().forEach(s -> obsolete.add(key(SEGMENT, s)));
+        if (state.isEmpty()) {
+            obsolete.add(key(SEGMENT, sequence));
+            delete(obsolete);
+            log.info("no index files under s3://{}/{}, deleted the manifest", bucket, codenamePrefix);
+            return state;
+        }
+        put(key(SNAPSHOT, sequence), snapshotBytes(sequence, state));
+        delete(obsolete);
+        log.info("rebuilt manifest s3://{}/{} with {} entries", bucket, prefix, state.size());
+        return state;
+    }
+
+    /**
+     * lists the codename until the first index file, without reading any
+     */
+    boolean hasIndexFiles() {
+        String token = null;
+        do {
+            var request = ListObjectsV2Request.builder().bucket(bucket).prefix(codenamePrefix).continuationToken(token).build();
+            var page = ioExecutor.call("ListObjectsV2", () -> s3Client.listObjectsV2(request));
+            if (page.contents().stream().anyMatch(s3Object -> IndexFormat.isIndex(s3Object.key())))
+                return true;
+            token = page.nextContinuationToken();
+        } while (token != null);
+        return false;
+    }
+
+    /**
+     * reads every index file of the codename from the pool
+     *
+     * @return index metadata by index key
+     */
+    Map<String, DebPackageMeta> readIndexes() {
+        var metaReader = new DebPackageMetaReader(objectMapper);
+        var fetches = new TreeMap<String, CompletableFuture<DebPackageMeta>>();
+        String token = null;
+        do {
+            var request = ListObjectsV2Request.builder().bucket(bucket).prefix(codenamePrefix).continuationToken(token).build();
+            var page = ioExecutor.call("ListObjectsV2", () -> s3Client.listObjectsV2(request));
+            for (var s3Object : page.contents())
+                IndexFormat.of(s3Object.key()).ifPresent(format -> fetches.put(s3Object.key(),
+                        ioExecutor.submit("GetObject", () -> metaReader.read(format, getBytes(s3Object.key())))));
+            token = page.nextContinuationToken();
+        } while (token != null);
+
+        var indexes = new TreeMap<String, DebPackageMeta>();
+        try {
+            fetches.forEach((key, fetch) -> indexes.put(key, fetch.join()));
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+        return indexes;
+    }
+
+    @SneakyThrows
+    byte[] snapshotBytes(long sequence, Map<String, DebPackageMeta> state) {
+        return objectMapper.writeValueAsBytes(new Snapshot().setSequence(sequence).setEntries(new TreeMap<>(state)));
+    }
+
+    Listing list() {
+        var segments = new ArrayList<Long>();
+        var snapshots = new ArrayList<Long>();
+        String token = null;
+        do {
+            var request = ListObjectsV2Request.builder().bucket(bucket).prefix(prefix).continuationToken(token).build();
+            var page = ioExecutor.call("ListObjectsV2", () -> s3Client.listObjectsV2(request));
+            for (var s3Object : page.contents()) {
+                var name = s3Object.key().substring(prefix.length());
+                if (name.startsWith(SEGMENT) && name.endsWith(EXTENSION))
+                    segments.add(sequence(name, SEGMENT));
+                else if (name.startsWith(SNAPSHOT) && name.endsWith(EXTENSION))
+                    snapshots.add(sequence(name, SNAPSHOT));
+            }
+            token = page.nextContinuationToken();
+        } while (token != null);
+        segments.sort(null);
+        snapshots.sort(null);
+        return new Listing(segments, snapshots);
+    }
+
+    static long sequence(String name, String type) {
+        return Long.parseLong(name.substring(type.length(), name.length() - EXTENSION.length()));
+    }
+
+    /**
+     * zero padded, so keys list in sequence order
+     */
+    String key(String type, long sequence) {
+        return prefix + type + String.format("%019d", sequence) + EXTENSION;
+    }
+
+    @SneakyThrows
+    <T> T get(String key, TypeReference<T> type) {
+        return objectMapper.readValue(getBytes(key), type);
+    }
+
+    byte[] getBytes(String key) {
+        return ioExecutor.call("GetObject", () -> s3Client.getObjectAsBytes(GetObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .build()).asByteArray());
+    }
+
+    /**
+     * @return false if the key already exists
+     */
+    boolean putIfAbsent(String key, byte[] body) {
+        try {
+            ioExecutor.call("PutObject", () -> s3Client.putObject(PutObjectRequest.builder()
+                            .bucket(bucket)
+                            .key(key)
+                            .ifNoneMatch("*")
+                            .build(),
+                    RequestBody.fromBytes(body)));
+            return true;
+        } catch (S3Exception e) {
+            // 412 when the key exists, 409 when a concurrent conditional write to the same key is in progress
+            if (e.statusCode() == 412 || e.statusCode() == 409)
+                return false;
+            throw e;
+        }
+    }
+
+    void put(String key, byte[] body) {
+        ioExecutor.call("PutObject", () -> s3Client.putObject(PutObjectRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .build(),
+                RequestBody.fromBytes(body)));
+    }
+
+    void delete(List<String> keys) {
+        // DeleteObjects takes at most 1000 keys
+        for (int i = 0; i < keys.size(); i += 1000) {
+            var batch = keys.subList(i, Math.min(keys.size(), i + 1000)).stream()
+                    .map(key -> ObjectIdentifier.builder().key(key).build())
+                    .toList();
+            ioExecutor.call("DeleteObjects", () -> s3Client.deleteObjects(DeleteObjectsRequest.builder()
+                    .bucket(bucket)
+                    .delete(Delete.builder().objects(batch).quiet(true).build())
+                    .build()));
+        }
+    }
+
+    record Listing(List<Long> segments, List<Long> snapshots) {
+        boolean isEmpty() {
+            return segments.isEmpty() && snapshots.isEmpty();
+        }
+
+        long lastSegment() {
+            return segments.isEmpty() ? -1 : segments.getLast();
+        }
+
+        long lastSnapshot() {
+            return snapshots.isEmpty() ? -1 : snapshots.getLast();
+        }
+
+        long lastSequence() {
+            return Math.max(lastSegment(), lastSnapshot());
+        }
+    }
+
+    @Data
+    @Accessors(chain = true)
+    public static class Snapshot {
+        /**
+         * the last segment included
+         */
+        long sequence;
+        Map<String, DebPackageMeta> entries;
+    }
+}
@@ -0,0 +1,167 @@
+package deb.simple.build_deb;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * copies selected packages from one codename of a pool to another, e.g. from staging to prod, without rebuilding or
+ * uploading them again
+ * <p>
+ * the index files of the source codename are read concurrently and filtered by {@link #selection(List)}. for each
+ * selected package its .deb is copied (unless the target's index of the package lists the same sha256), then its
+ * index, so an index never lists a missing .deb. an index whose {@link DebPackageMeta#getFilename()} points into the
+ * source codename (e.g. written by {@link IndexDeb}) is written again, pointing at the copied .deb. an index of a
+ * shared pool package (with a Filename outside the source codename) is copied alone, pointing at the same .deb. on
+ * s3 the copies are server side. the target codename's manifest, if it has one, gets a segment listing the promoted
+ * indexes.
+ */
+@Slf4j
+public class PoolPromote {
+    final PoolGc.Pool pool;
+    final IoExecutor ioExecutor;
+    /**
+     * path of the pool relative to the repository root, see {@link PoolGc#poolPrefix}
+     */
+    final String poolPrefix;
+
+    public PoolPromote(PoolGc.Pool pool, IoExecutor ioExecutor) {
+        this(pool, ioExecutor, PoolGc.DEFAULT_POOL_PREFIX);
+    }
+
+    public PoolPromote(PoolGc.Pool pool, IoExecutor ioExecutor, String poolPrefix) {
+        this.pool = pool;
+        this.ioExecutor = ioExecutor;
+        this.poolPrefix = poolPrefix;
+    }
+
+    /**
+     * @param promoted   index keys in the target codename, with their metas
+     * @param debsCopied .deb files copied, the target already had the others
+     */
+    public record Report(Map<String, DebPackageMeta> promoted, int debsCopied) {
+    }
+
+    /**
+     * @param target the target's index of the package, null if the target has no .deb or no index for it
+     */
+    record DebCopy(PoolGc.PoolCopy copy, DebPackageMeta meta, CompletableFuture<DebPackageMeta> target) {
+        boolean needed() {
+            return target == null || !Objects.equals(target.join().getHashes().getSha256(), meta.getHashes().getSha256());
+        }
+    }
+
+    public Report promote(String from, String to, Predicate<DebPackageMeta> selection) {
+        Assert.isTrue(!from.equals(to), "cannot promote " + from + " to itself");
+        var sourcePrefix = from + "/";
+        var sources = pool.list(sourcePrefix).stream().collect(Collectors.toMap(PoolGc.PoolObject::key, Function.identity()));
+        var targets = pool.list(to + "/").stream().collect(Collectors.toMap(PoolGc.PoolObject::key, Function.identity()));
+        var indexes = sources.values().stream()
+                .filter(object -> IndexFormat.isIndex(StringUtils.substringAfterLast(object.key(), "/")))
+                .sorted(Comparator.comparing(PoolGc.PoolObject::key))
+                .toList();
+        var reads = indexes.stream()
+                .map(index -> ioExecutor.submit("ReadIndex", () -> pool.readIndex(index)))
+                .toList();
+
+        var debCopies = new ArrayList<DebCopy>();
+        var indexCopies = new ArrayList<PoolGc.PoolCopy>();
+        // indexes with a Filename in the source codename, rewritten for the target
+        var indexWrites = new TreeMap<String, DebPackageMeta>();
+        var promoted = new TreeMap<String, DebPackageMeta>();
+        for (int i = 0; i < indexes.size(); i++) {
+            var index = indexes.get(i);
+            var meta = reads.get(i).join();
+            if (!selection.test(meta))
+                continue;
+            var targetIndexKey = to + "/" + StringUtils.removeStart(index.key(), sourcePrefix);
+            var sourceDebKey = PoolGc.debKey(poolPrefix, from, meta).filter(key -> key.startsWith(sourcePrefix));
+            if (sourceDebKey.isPresent()) {
+                var debKey = sourceDebKey.get();
+                var deb = sources.get(debKey);
+                if (deb == null)
+                    throw new IllegalStateException("no " + debKey + " for " + index.key());
+                var targetKey = to + "/" + StringUtils.removeStart(debKey, sourcePrefix);
+                var target = targets.get(targetKey);
+                // a .deb of the same size may still differ, its index tells (one without an index may be a partial upload)
+                var targetIndex = targets.get(targetIndexKey);
+                debCopies.add(new DebCopy(new PoolGc.PoolCopy(debKey, targetKey, deb.size()), meta,
+                        target != null && target.size() == deb.size() && targetIndex != null
+                                ? ioExecutor.submit("ReadIndex", () -> pool.readIndex(targetIndex))
+                                : null));
+                if (meta.getFilename() != null) {
+                    // the index lists the .deb of the source codename, the promoted one lists the copy
+                    meta.setFilename((poolPrefix.isEmpty() ? "" : StringUtils.appendIfMissing(poolPrefix, "/")) + targetKey);
+                    indexWrites.put(targetIndexKey, meta);
+                }
+            }
+            if (!indexWrites.containsKey(targetIndexKey))
+                indexCopies.add(new PoolGc.PoolCopy(index.key(), targetIndexKey, index.size()));
+            promoted.put(targetIndexKey, meta);
+        }
+        var neededDebCopies = debCopies.stream().filter(DebCopy::needed).map(DebCopy::copy).toList();
+        log.info("promoting {} of {} packages from {} to {}, copying {} .deb files",
+                promoted.size(), indexes.size(), from, to, neededDebCopies.size());
+
+        pool.copy(neededDebCopies);
+        pool.copy(indexCopies);
+        // an s3 pool takes an i/o slot for each write
+        indexWrites.entrySet().stream()
+                .map(entry -> CompletableFuture.runAsync(() -> pool.write(entry.getKey(), new BuildIndex()
+                        .setFormat(IndexFormat.of(entry.getKey()).orElseThrow())
+                        .buildDebIndexToBytes(entry.getValue())), ioExecutor.getExecutor()))
+                .toList()
+                .forEach(CompletableFuture::join);
+        if (!promoted.isEmpty())
+            pool.updateManifest(to, promoted);
+        log.info("promoted {} packages from {} to {}, i/o: {}", promoted.size(), from, to, ioExecutor.report());
+        return new Report(promoted, neededDebCopies.size());
+    }
+
+    /**
+     * @param patterns {@code name} or {@code name=version}, both may use the globs {@code *} and {@code ?}, e.g.
+     *                 {@code lib*} or {@code hello=1.2.*}. a package is selected if any pattern matches it, every
+     *                 package if there are none.
+     */
+    public static Predicate<DebPackageMeta> selection(List<String> patterns) {
+        if (patterns == null || patterns.isEmpty())
+            return meta -> true;
+        return patterns.stream()
+                .map(pattern -> {
+                    var name = globToPattern(StringUtils.substringBefore(pattern, "="));
+                    var version = pattern.contains("=") ? globToPattern(StringUtils.substringAfter(pattern, "=")) : null;
+                    return (Predicate<DebPackageMeta>) meta -> {
+                        var packageMeta = meta.getDebPackageConfig().getMeta();
+                        return name.matcher(packageMeta.getName()).matches()
+                                && (version == null || version.matcher(packageMeta.getVersion()).matches());
+                    };
+                })
+                .reduce(Predicate::or)
+                .orElseThrow();
+    }
+
+    static Pattern globToPattern(String glob) {
+        var regex = new StringBuilder();
+        for (var c : glob.toCharArray()) {
+            if (c == '*')
+                regex.append(".*");
+            else if (c == '?')
+                regex.append('.');
+            else
+                regex.append(Pattern.quote(String.valueOf(c)));
+        }
+        return Pattern.compile(regex.toString());
+    }
+}
@@ -0,0 +1,171 @@
+package deb.simple.build_deb;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.Assert;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * concurrent server side copies within s3
+ * <p>
+ * at most {@link #maxConcurrency} copies run at once. objects larger than {@link #MAX_SINGLE_COPY_SIZE}, which a
+ * single {@code CopyObject} refuses, are copied in ranges with {@code UploadPartCopy}, again at most
+ * {@link #maxConcurrency} ranges at once. a large copy waits for its ranges on {@link #executor}, so that should
+ * not be a small fixed size pool (virtual threads work well).
+ */
+@Slf4j
+public class S3Copies {
+    public static final long MAX_SINGLE_COPY_SIZE = 5L * 1024 * 1024 * 1024;
+    public static final long COPY_PART_SIZE = 512L * 1024 * 1024;
+
+    final S3Client s3Client;
+    final Executor executor;
+    final int maxConcurrency;
+
+    public S3Copies(S3Client s3Client, Executor executor, int maxConcurrency) {
+        Assert.isTrue(maxConcurrency > 0, "need at least one copy at a time");
+        this.s3Client = s3Client;
+        this.executor = executor;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * runs all copies and logs the latency of each
+     *
+     * @return one result per copy, in the same order
+     * @throws IllegalStateException after all copies finished, if any of them failed
+     */
+    public List<CopyResult> copyAll(List<Copy> copies) {
+        var permits = new Semaphore(maxConcurrency);
+        var futures = copies.stream()
+                .map(copy -> CompletableFuture.supplyAsync(() -> bounded(permits, () -> timedCopy(copy)), executor))
+                .toList();
+        var results = futures.stream().map(CompletableFuture::join).toList();
+
+        var failed = results.stream().filter(r -> r.failure() != null).toList();
+        if (!failed.isEmpty()) {
+            var exception = new IllegalStateException("failed " + failed.size() + " of " + results.size() + " copies: "
+                    + failed.stream().map(r -> r.copy().destinationKey()).toList());
+            failed.forEach(r -> exception.addSuppressed(r.failure()));
+            throw exception;
+        }
+        return results;
+    }
+
+    CopyResult timedCopy(Copy copy) {
+        long start = System.nanoTime();
+        Throwable failure = null;
+        try {
+            copy(copy);
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        var latency = Duration.ofNanos(System.nanoTime() - start);
+        if (failure == null)
+            log.info("copied s3://{}/{} to {} in {}ms", copy.bucket(), copy.sourceKey(), copy.destinationKey(), latency.toMillis());
+        else
+            log.warn("failed to copy s3://{}/{} to {} after {}ms", copy.bucket(), copy.sourceKey(), copy.destinationKey(), latency.toMillis(), failure);
+        return new CopyResult(copy, latency, failure);
+    }
+
+    public void copy(Copy copy) {
+        long size = copy.size() >= 0
+                ? copy.size()
+                : s3Client.headObject(HeadObjectRequest.builder().bucket(copy.bucket()).key(copy.sourceKey()).build()).contentLength();
+
+        if (size <= MAX_SINGLE_COPY_SIZE) {
+            s3Client.copyObject(CopyObjectRequest.builder()
+                    .sourceBucket(copy.bucket())
+                    .sourceKey(copy.sourceKey())
+                    .destinationBucket(copy.bucket())
+                    .destinationKey(copy.destinationKey())
+                    .build());
+        } else {
+            multipartCopy(copy, size);
+        }
+    }
+
+    void multipartCopy(Copy copy, long size) {
+        var uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                .bucket(copy.bucket())
+                .key(copy.destinationKey())
+                .build()).uploadId();
+        try {
+            int partCount = Math.toIntExact((size + COPY_PART_SIZE - 1) / COPY_PART_SIZE);
+            var permits = new Semaphore(maxConcurrency);
+            var parts = IntStream.range(0, partCount)
+                    .mapToObj(index -> CompletableFuture.supplyAsync(
+                            () -> bounded(permits, () -> copyPart(copy, uploadId, index, size)), executor))
+                    .toList()
+                    .stream()
+                    .map(CompletableFuture::join)
+                    .toList();
+
+            s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                    .bucket(copy.bucket())
+                    .key(copy.destinationKey())
+                    .uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(parts).build())
+                    .build());
+        } catch (RuntimeException e) {
+            // a failed part surfaces wrapped by join
+            var failure = e instanceof CompletionException && e.getCause() instanceof RuntimeException cause ? cause : e;
+            try {
+                s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                        .bucket(copy.bucket())
+                        .key(copy.destinationKey())
+                        .uploadId(uploadId)
+                        .build());
+            } catch (RuntimeException abortFailure) {
+                // the copy failure is what matters, the upload is left for a lifecycle rule to clean up
+                failure.addSuppressed(abortFailure);
+            }
+            throw failure;
+        }
+    }
+
+    CompletedPart copyPart(Copy copy, String uploadId, int index, long size) {
+        long first = index * COPY_PART_SIZE;
+        long last = Math.min(size, first + COPY_PART_SIZE) - 1;
+        var response = s3Client.uploadPartCopy(UploadPartCopyRequest.builder()
+                .sourceBucket(copy.bucket())
+                .sourceKey(copy.sourceKey())
+                .destinationBucket(copy.bucket())
+                .destinationKey(copy.destinationKey())
+                .uploadId(uploadId)
+                .partNumber(index + 1)
+                .copySourceRange("bytes=" + first + "-" + last)
+                .build());
+        return CompletedPart.builder()
+                .partNumber(index + 1)
+                .eTag(response.copyPartResult().eTag())
+                .build();
+    }
+
+    static <T> T bounded(Semaphore permits, Supplier<T> supplier) {
+        permits.acquireUninterruptibly();
+        try {
+            return supplier.get();
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * @param size size of the source object, or negative to look it up
+     */
+    public record Copy(String bucket, String sourceKey, String destinationKey, long size) {
+    }
+
+    public record CopyResult(Copy copy, Duration latency, Throwable failure) {
+    }
+}
@@ -0,0 +1,275 @@
+package deb.simple.build_deb;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.Assert;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * an {@link OutputStream} that uploads to s3 with a multipart upload
+ * <p>
+ * full parts are uploaded on {@link #executor} while more data is written, at most {@link #maxInFlight} at a time
+ * (writes block beyond that, which bounds memory to that many parts). a failed part is retried by the s3 client's
+ * retry policy, from its buffer (the body is resettable), and not again on top of it.
+ * objects smaller than one part are sent with a single {@code PutObject}.
+ * {@link #close()} completes the upload, {@link #abort()} discards it.
+ * <p>
+ * with {@link #deferredHead(S3Client, String, String, Executor, int, int)} the bytes that go in front of the written
+ * data are only supplied at the end, with {@link #setHead(byte[])}: the first part is held back until then, and all
+ * later parts upload as they fill up. this is what allows a .deb to upload while data.tar.gz is compressed, see
+ * {@link BuildDeb#buildDebStreaming(DebPackageConfig, OutputStream)}
+ */
+@Slf4j
+public class S3MultipartUpload extends OutputStream {
+    public static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+    public static final int DEFAULT_PART_SIZE = 16 * 1024 * 1024;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 8;
+    /**
+     * s3 allows at most 10000 parts, so the part size doubles every this many parts
+     */
+    static final int PARTS_PER_PART_SIZE = 1000;
+
+    final S3Client s3Client;
+    final String bucket;
+    final String key;
+    final Executor executor;
+    final int maxInFlight;
+    final Semaphore inFlight;
+    final boolean deferHead;
+    final List<CompletableFuture<CompletedPart>> parts = new ArrayList<>();
+
+    int partSize;
+    byte[] buffer;
+    int position;
+    int nextPartNumber;
+    /**
+     * the first part, when the head is deferred
+     */
+    byte[] held;
+    byte[] head;
+    String uploadId;
+    volatile Throwable failure;
+    boolean closed;
+
+    public S3MultipartUpload(S3Client s3Client, String bucket, String key, Executor executor, int partSize, int maxInFlight) {
+        this(s3Client, bucket, key, executor, partSize, maxInFlight, false);
+    }
+
+    S3MultipartUpload(S3Client s3Client, String bucket, String key, Executor executor, int partSize, int maxInFlight, boolean deferHead) {
+        Assert.isTrue(partSize >= MIN_PART_SIZE, () -> "part size must be at least " + MIN_PART_SIZE + " but was " + partSize);
+        Assert.isTrue(maxInFlight > 0, "need at least one part in flight");
+        this.s3Client = s3Client;
+        this.bucket = bucket;
+        this.key = key;
+        this.executor = executor;
+        this.partSize = partSize;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.deferHead = deferHead;
+        this.buffer = new byte[partSize];
+        this.nextPartNumber = deferHead ? 2 : 1;
+    }
+
+    /**
+     * an upload whose first bytes are supplied last, with {@link #setHead(byte[])}
+     */
+    public static S3MultipartUpload deferredHead(S3Client s3Client, String bucket, String key, Executor executor, int partSize, int maxInFlight) {
+        return new S3MultipartUpload(s3Client, bucket, key, executor, partSize, maxInFlight, true);
+    }
+
+    /**
+     * starts the upload of the first part, which was held back for the head
+     */
+    public void setHead(byte[] head) throws IOException {
+        Assert.state(deferHead, "head can only be set on an upload created with deferredHead");
+        Assert.state(this.head == null, "head was already set");
+        this.head = head;
+        if (held != null) {
+            byte[] first = concat(head, held, held.length);
+            held = null;
+            startPart(1, first);
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        buffer[position++] = (byte) b;
+        if (position == buffer.length)
+            flushPart();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        Objects.checkFromIndexSize(off, len, b.length);
+        while (len > 0) {
+            int n = Math.min(len, buffer.length - position);
+            System.arraycopy(b, off, buffer, position, n);
+            position += n;
+            off += n;
+            len -= n;
+            if (position == buffer.length)
+                flushPart();
+        }
+    }
+
+    void flushPart() throws IOException {
+        byte[] part = position == buffer.length ? buffer : Arrays.copyOf(buffer, position);
+        if (nextPartNumber > 1 && (nextPartNumber - 1) % PARTS_PER_PART_SIZE == 0)
+            partSize = Math.multiplyExact(partSize, 2);
+        buffer = new byte[partSize];
+        position = 0;
+
+        if (deferHead && head == null && held == null) {
+            held = part;
+            return;
+        }
+        startPart(nextPartNumber++, part);
+    }
+
+    void startPart(int partNumber, byte[] part) throws IOException {
+        if (failure != null)
+            throw new IOException("upload of part to s3://" + bucket + "/" + key + " failed", failure);
+        if (uploadId == null) {
+            uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .build()).uploadId();
+            log.debug("started multipart upload {} to s3://{}/{}", uploadId, bucket, key);
+        }
+
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting to upload part " + partNumber);
+        }
+
+        CompletableFuture<CompletedPart> future;
+        try {
+            future = CompletableFuture.supplyAsync(() -> uploadPart(partNumber, part), executor);
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            throw new IOException("could not schedule upload of part " + partNumber, e);
+        }
+        parts.add(future.whenComplete((ignored, throwable) -> {
+            if (throwable != null)
+                failure = throwable;
+            inFlight.release();
+        }));
+    }
+
+    CompletedPart uploadPart(int partNumber, byte[] part) {
+        var response = s3Client.uploadPart(UploadPartRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .uploadId(uploadId)
+                        .partNumber(partNumber)
+                        .contentLength((long) part.length)
+                        .build(),
+                RequestBody.fromInputStream(new ByteArrayInputStream(part), part.length));
+        return CompletedPart.builder().partNumber(partNumber).eTag(response.eTag()).build();
+    }
+
+    /**
+     * finishes writing and completes the upload, aborting it if that fails
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+
+        try {
+            Assert.state(!deferHead || head != null, () -> "head was never set for s3://" + bucket + "/" + key);
+            if (uploadId == null) {
+                putObject();
+                return;
+            }
+
+            if (position > 0)
+                startPart(nextPartNumber++, Arrays.copyOf(buffer, position));
+            buffer = null;
+
+            var completedParts = parts.stream()
+                    .map(CompletableFuture::join)
+                    .sorted(Comparator.comparing(CompletedPart::partNumber))
+                    .toList();
+            s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts).build())
+                    .build());
+            log.debug("completed multipart upload of {} parts to s3://{}/{}", completedParts.size(), bucket, key);
+        } catch (IOException | RuntimeException e) {
+            abortUpload();
+            throw e;
+        }
+    }
+
+    void putObject() {
+        byte[] content = deferHead ? concat(head, buffer, position) : Arrays.copyOf(buffer, position);
+        buffer = null;
+        s3Client.putObject(PutObjectRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .build(),
+                RequestBody.fromBytes(content));
+    }
+
+    static byte[] concat(byte[] head, byte[] tail, int tailLength) {
+        byte[] content = Arrays.copyOf(head, head.length + tailLength);
+        System.arraycopy(tail, 0, content, head.length, tailLength);
+        return content;
+    }
+
+    /**
+     * discards everything written so far, parts already uploaded are removed from s3
+     */
+    public void abort() {
+        if (closed)
+            return;
+        closed = true;
+        abortUpload();
+    }
+
+    void abortUpload() {
+        buffer = null;
+        held = null;
+        // parts that are still uploading would outlive the abort
+        CompletableFuture.allOf(parts.toArray(CompletableFuture[]::new))
+                .handle((ignored, throwable) -> null)
+                .join();
+        if (uploadId == null)
+            return;
+        try {
+            s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .build());
+            log.info("aborted multipart upload {} to s3://{}/{}", uploadId, bucket, key);
+        } catch (SdkException e) {
+            log.warn("could not abort multipart upload {} to s3://{}/{}", uploadId, bucket, key, e);
+        }
+    }
+
+    void ensureOpen() throws IOException {
+        if (closed)
+            throw new IOException("upload to s3://" + bucket + "/" + key + " is closed");
+    }
+}
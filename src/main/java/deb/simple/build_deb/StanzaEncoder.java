@@ -0,0 +1,250 @@
+package deb.simple.build_deb;
+
+import deb.simple.DebArch;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * renders the Packages stanza of a {@link DebPackageMeta} straight to UTF-8, byte for byte the same as
+ * {@link BuildPackagesIndex#metaToIndex(DebPackageMeta)}
+ * <p>
+ * field names (and architectures) are encoded once, values are encoded char by char into a buffer that is reused
+ * from stanza to stanza, so rendering does not create any intermediate strings. not thread safe, use one encoder
+ * per thread.
+ */
+public class StanzaEncoder {
+    static final byte[] PACKAGE = ascii("Package: ");
+    static final byte[] VERSION = ascii("Version: ");
+    static final byte[] ARCHITECTURE = ascii("Architecture: ");
+    static final byte[] MAINTAINER = ascii("Maintainer: ");
+    static final byte[] DEPENDS = ascii("Depends: ");
+    static final byte[] CONFLICTS = ascii("Conflicts: ");
+    static final byte[] RECOMMENDS = ascii("Recommends: ");
+    static final byte[] FILENAME = ascii("Filename: ");
+    static final byte[] INSTALLED_SIZE = ascii("Installed-Size: ");
+    static final byte[] SIZE = ascii("Size: ");
+    static final byte[] MD5SUM = ascii("MD5sum: ");
+    static final byte[] SHA1 = ascii("SHA1: ");
+    static final byte[] SHA256 = ascii("SHA256: ");
+    static final byte[] SHA512 = ascii("SHA512: ");
+    static final byte[] SECTION = ascii("Section: ");
+    static final byte[] PRIORITY = ascii("Priority: ");
+    static final byte[] HOMEPAGE = ascii("Homepage: ");
+    static final byte[] DESCRIPTION = ascii("Description: ");
+    static final byte[] SOURCE = ascii("Source: ");
+    static final byte[] MULTI_ARCH = ascii("Multi-Arch: ");
+    static final byte[] ESSENTIAL = ascii("Essential: ");
+    static final byte[] PRE_DEPENDS = ascii("Pre-Depends: ");
+    static final byte[] SUGGESTS = ascii("Suggests: ");
+    static final byte[] BREAKS = ascii("Breaks: ");
+    static final byte[] REPLACES = ascii("Replaces: ");
+    static final byte[] PROVIDES = ascii("Provides: ");
+    static final byte[] DEB_EXTENSION = ascii(".deb");
+    /**
+     * what {@link StringBuilder#append(String)} writes for null
+     */
+    static final byte[] NULL = ascii("null");
+    static final Map<DebArch, byte[]> ARCHES = new EnumMap<>(DebArch.class);
+
+    static {
+        for (var arch : DebArch.values())
+            ARCHES.put(arch, ascii(arch.toString()));
+    }
+
+    /**
+     * {@code pool/<pool path>/}
+     */
+    final byte[] poolPrefix;
+    byte[] buffer = new byte[4096];
+    int length;
+
+    public StanzaEncoder(String poolPath) {
+        this.poolPrefix = ("pool/" + StringUtils.strip(poolPath, "/") + "/").getBytes(StandardCharsets.UTF_8);
+    }
+
+    static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * replaces the buffer content with the stanza of the meta
+     */
+    public StanzaEncoder encode(DebPackageMeta debPackageMeta) {
+        var config = debPackageMeta.getDebPackageConfig();
+        var meta = config.getMeta();
+        var control = config.getControl();
+        var hashes = debPackageMeta.getHashes();
+        length = 0;
+
+        field(PACKAGE, meta.getName());
+        optional(SOURCE, control.getSource());
+        field(VERSION, meta.getVersion());
+        field(ARCHITECTURE, meta.getArch());
+        optional(MULTI_ARCH, control.getMultiArch());
+        optional(ESSENTIAL, control.getEssential());
+        field(MAINTAINER, control.getMaintainer());
+
+        optional(PRE_DEPENDS, control.getPreDepends());
+        if (!control.getDepends().isBlank())
+            field(DEPENDS, control.getDepends());
+        if (!control.getConflicts().isBlank())
+            field(CONFLICTS, control.getConflicts());
+        if (!control.getRecommends().isBlank())
+            field(RECOMMENDS, control.getRecommends());
+        optional(SUGGESTS, control.getSuggests());
+        optional(BREAKS, control.getBreaks());
+        optional(REPLACES, control.getReplaces());
+        optional(PROVIDES, control.getProvides());
+
+        write(FILENAME);
+        if (debPackageMeta.getFilename() != null) {
+            write(debPackageMeta.getFilename());
+        } else {
+            // BuildPackagesIndex#filename, without concatenating the deb filename
+            write(poolPrefix);
+            write(meta.getName());
+            write('_');
+            write(meta.getVersion());
+            write('_');
+            write(meta.getArch());
+            write(DEB_EXTENSION);
+        }
+        write('\n');
+        if (control.getInstalledSize() != null)
+            field(INSTALLED_SIZE, control.getInstalledSize());
+        field(SIZE, debPackageMeta.getSize());
+        field(MD5SUM, hashes.getMd5());
+        field(SHA1, hashes.getSha1());
+        field(SHA256, hashes.getSha256());
+        field(SHA512, hashes.getSha512());
+
+        field(SECTION, control.getSection());
+        field(PRIORITY, control.getPriority());
+        if (!control.getHomepage().isEmpty())
+            field(HOMEPAGE, control.getHomepage());
+        field(DESCRIPTION, control.getDescription());
+        return this;
+    }
+
+    public void writeTo(OutputStream outputStream) throws IOException {
+        outputStream.write(buffer, 0, length);
+    }
+
+    /**
+     * @return a copy of the stanza
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, length);
+    }
+
+    public int length() {
+        return length;
+    }
+
+    void field(byte[] name, String value) {
+        write(name);
+        write(value);
+        write('\n');
+    }
+
+    void optional(byte[] name, String value) {
+        if (value != null)
+            field(name, value);
+    }
+
+    void field(byte[] name, DebArch value) {
+        write(name);
+        write(value);
+        write('\n');
+    }
+
+    void field(byte[] name, Number value) {
+        write(name);
+        if (value == null)
+            write(NULL);
+        else
+            write(value.longValue());
+        write('\n');
+    }
+
+    void write(DebArch arch) {
+        write(arch == null ? NULL : ARCHES.get(arch));
+    }
+
+    void write(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    void write(char ascii) {
+        ensureCapacity(1);
+        buffer[length++] = (byte) ascii;
+    }
+
+    void write(long value) {
+        // at most 20 chars, including the sign
+        ensureCapacity(20);
+        long remaining = value;
+        if (remaining < 0) {
+            buffer[length++] = '-';
+            remaining = -remaining;
+        }
+        int start = length;
+        do {
+            buffer[length++] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining != 0);
+        // digits were written least significant first
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            byte tmp = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = tmp;
+        }
+    }
+
+    /**
+     * encodes to UTF-8 like {@link String#getBytes(java.nio.charset.Charset)}, unpaired surrogates become '?'
+     */
+    void write(String value) {
+        if (value == null) {
+            write(NULL);
+            return;
+        }
+        int chars = value.length();
+        // every char takes at most 3 bytes, a surrogate pair (2 chars) takes 4
+        ensureCapacity(chars * 3);
+        for (int i = 0; i < chars; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer[length++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[length++] = (byte) (0xc0 | c >> 6);
+                buffer[length++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < chars && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[length++] = (byte) (0xf0 | codePoint >> 18);
+                buffer[length++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+                buffer[length++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+                buffer[length++] = (byte) (0x80 | codePoint & 0x3f);
+            } else if (Character.isSurrogate(c)) {
+                buffer[length++] = '?';
+            } else {
+                buffer[length++] = (byte) (0xe0 | c >> 12);
+                buffer[length++] = (byte) (0x80 | c >> 6 & 0x3f);
+                buffer[length++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+    }
+
+    void ensureCapacity(int additional) {
+        if (length + additional > buffer.length)
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + additional));
+    }
+}
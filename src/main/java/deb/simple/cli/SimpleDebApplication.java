@@ -3,6 +3,7 @@ package deb.simple.cli;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.json.JsonMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLMapper;
+import deb.simple.DebArch;
 import deb.simple.build_deb.*;
 import deb.simple.gpg.GenerateGpgKey;
 import jakarta.validation.ConstraintViolationException;
@@ -12,6 +13,7 @@ import lombok.Data;
 import lombok.SneakyThrows;
 import lombok.experimental.Accessors;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.output.TeeOutputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.pgpainless.key.generation.type.rsa.RsaLength;
 import org.springframework.util.Assert;
@@ -24,17 +26,23 @@ import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.S3ClientBuilder;
-import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 import software.amazon.awssdk.services.ssm.SsmClient;
 import software.amazon.awssdk.services.ssm.SsmClientBuilder;
 import software.amazon.awssdk.services.ssm.model.GetParametersRequest;
 
+import java.io.BufferedOutputStream;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 @Slf4j
 @Command(
@@ -48,6 +56,9 @@ import java.util.*;
         subcommands = {
                 SimpleDebApplication.Build.class,
                 SimpleDebApplication.BuildRepo.class,
+                SimpleDebApplication.Index.class,
+                SimpleDebApplication.Gc.class,
+                SimpleDebApplication.Promote.class,
                 SimpleDebApplication.Gpg.class,
                 AutoComplete.GenerateCompletion.class,
         }
@@ -71,6 +82,8 @@ public class SimpleDebApplication {
         BuildOutput buildOutput;
         @Option(names = {"-i", "--index"}, description = "produce index package - suitable for indexing but not installable")
         boolean index = false;
+        @Option(names = {"--index-format"}, description = "encoding of the index file (${COMPLETION-CANDIDATES}), smile and cbor are smaller and faster to read")
+        IndexFormat indexFormat = IndexFormat.json;
         @Option(names = {"-C"}, description = "change directory before running (defaults to $PWD)")
         Path current = Path.of(System.getProperty("user.dir"));
 
@@ -105,16 +118,14 @@ public class SimpleDebApplication {
                         .setCurrent(current)
                         .buildDeb(config, outDir);
                 if (index)
-                    new BuildIndex().buildDebIndex(deb, config, outDir);
+                    new BuildIndex().setFormat(indexFormat).buildDebIndex(deb, config, outDir);
             } else if (buildOutput.getS3Output() != null) {
-                var pkgBytes = new BuildDeb().setCurrent(current).buildDebToArchive(config);
-                var indexBytes = new BuildIndex().buildDebIndexToBytes(pkgBytes, config);
-
                 S3ClientBuilder builder = S3Client.builder();
                 Optional.ofNullable(buildOutput.getS3Output().getRegion())
                         .map(Region::of)
                         .map(builder::region);
-                try (S3Client s3Client = builder.build()) {
+                try (S3Client s3Client = builder.build();
+                     var executor = Executors.newVirtualThreadPerTaskExecutor()) {
                     var s3Url = buildOutput.getS3Output().getS3Url();
 
                     var keyPrefix = StringUtils.strip(s3Url.getPath(), "/");
@@ -123,29 +134,48 @@ public class SimpleDebApplication {
 
                     var codenames = new ArrayList<>(new HashSet<>(buildOutput.getS3Output().getCodenames()));
                     var cn = codenames.getFirst();
-                    s3Client.putObject(
-                            PutObjectRequest.builder()
-                                    .bucket(s3Url.getHost())
-                                    .key(keyPrefix + "/" + cn + "/" + config.getMeta().getDebFilename())
-                                    .build(),
-                            RequestBody.fromBytes(pkgBytes));
+                    var debFilename = config.getMeta().getDebFilename();
+                    var indexFilename = new BuildIndex().setFormat(indexFormat).indexFilename(config);
+
+                    // with a shared pool, the deb is stored once and each codename only gets an index pointing at it
+                    var sharedPoolDirectory = buildOutput.getS3Output().isSharedPool()
+                            ? BuildPackagesIndex.sharedPoolDirectory(config.getControl().getSection(), config.getMeta().getName())
+                            : null;
+                    var debKey = keyPrefix + "/" + Objects.requireNonNullElse(sharedPoolDirectory, cn) + "/" + debFilename;
+
+                    var meta = uploadDeb(s3Client, executor, s3Url.getHost(), debKey, config);
+                    if (sharedPoolDirectory != null)
+                        meta.setFilename("pool/" + sharedPoolDirectory + "/" + debFilename);
+                    var indexBytes = new BuildIndex().setFormat(indexFormat).buildDebIndexToBytes(meta);
 
                     s3Client.putObject(
                             PutObjectRequest.builder()
                                     .bucket(s3Url.getHost())
-                                    .key(keyPrefix + "/" + cn + "/" + config.getMeta().getIndexFilename())
+                                    .key(keyPrefix + "/" + cn + "/" + indexFilename)
                                     .build(),
                             RequestBody.fromBytes(indexBytes));
 
-                    for (var cnFileName : List.of(config.getMeta().getDebFilename(), config.getMeta().getIndexFilename())) {
-                        for (var otherCn : codenames.subList(1, codenames.size())) {
-                            s3Client.copyObject(CopyObjectRequest.builder()
-                                    .sourceBucket(s3Url.getHost())
-                                    .sourceKey(keyPrefix + "/" + cn + "/" + cnFileName)
-                                    .destinationBucket(s3Url.getHost())
-                                    .destinationKey(keyPrefix + "/" + otherCn + "/" + cnFileName)
-                                    .build());
-                        }
+                    var copies = new ArrayList<S3Copies.Copy>();
+                    for (var otherCn : codenames.subList(1, codenames.size())) {
+                        if (sharedPoolDirectory == null)
+                            copies.add(new S3Copies.Copy(s3Url.getHost(),
+                                    debKey,
+                                    keyPrefix + "/" + otherCn + "/" + debFilename,
+                                    meta.getSize()));
+                        copies.add(new S3Copies.Copy(s3Url.getHost(),
+                                keyPrefix + "/" + cn + "/" + indexFilename,
+                                keyPrefix + "/" + otherCn + "/" + indexFilename,
+                                indexBytes.length));
+                    }
+                    new S3Copies(s3Client, executor, buildOutput.getS3Output().getUploadConcurrency()).copyAll(copies);
+
+                    // after the index files, so a manifest never lists an index that does not exist
+                    try (var ioExecutor = new IoExecutor(buildOutput.getS3Output().getUploadConcurrency())) {
+                        codenames.stream()
+                                .map(codename -> CompletableFuture.runAsync(() -> new PoolManifest(s3Client, ioExecutor, mapper, s3Url.getHost(), keyPrefix + "/" + codename + "/")
+                                        .append(Map.of(keyPrefix + "/" + codename + "/" + indexFilename, meta)), executor))
+                                .toList()
+                                .forEach(CompletableFuture::join);
                     }
                 }
             } else {
@@ -153,6 +183,47 @@ public class SimpleDebApplication {
             }
         }
 
+        /**
+         * builds the deb straight into a multipart upload, parts upload while data.tar.gz is still compressing.
+         * the tail of the deb is spooled to a temporary file, so it can be hashed once its head is known (every
+         * hash starts with the head, which is only known at the end). setting the head starts the upload of the
+         * first part, the spool is hashed while it and the other parts are still uploading, and before the upload
+         * completes, so a failed hash aborts the upload.
+         */
+        @SneakyThrows
+        DebPackageMeta uploadDeb(S3Client s3Client, Executor executor, String bucket, String key, DebPackageConfig config) {
+            var s3Output = buildOutput.getS3Output();
+            var spool = Files.createTempFile("simple-deb-", ".deb.tail");
+            try {
+                var upload = S3MultipartUpload.deferredHead(s3Client, bucket, key, executor,
+                        s3Output.getPartSizeMib() * 1024 * 1024, s3Output.getUploadConcurrency());
+                FileIntegrity integrity;
+                try {
+                    byte[] head;
+                    try (var spoolOut = new BufferedOutputStream(Files.newOutputStream(spool))) {
+                        head = new BuildDeb().setCurrent(current).buildDebStreaming(config, new TeeOutputStream(upload, spoolOut));
+                    }
+                    upload.setHead(head);
+                    integrity = hash(head, spool);
+                } catch (Throwable t) {
+                    upload.abort();
+                    throw t;
+                }
+                upload.close();
+                return new BuildIndex().buildDebIndexToDto(integrity, config);
+            } finally {
+                Files.deleteIfExists(spool);
+            }
+        }
+
+        @SneakyThrows
+        static FileIntegrity hash(byte[] head, Path tail) {
+            var integrity = new IntegrityOutputStream();
+            integrity.write(head);
+            Files.copy(tail, integrity);
+            return integrity.toFileIntegrity(null);
+        }
+
         @Data
         @Accessors(chain = true)
         public static class BuildOutput {
@@ -173,6 +244,15 @@ public class SimpleDebApplication {
                 @Option(names = {"-cn", "--codename"}, description = "codename (subdir of ./pool)", arity = "1..*")
                 List<Codename> codenames;
 
+                @Option(names = {"--shared-pool"}, description = "store the deb once, in pool/<component>/<prefix>/<name>/, and only the index per codename")
+                boolean sharedPool;
+
+                @Option(names = {"--part-size"}, description = "multipart upload part size in MiB (at least 5)")
+                int partSizeMib = S3MultipartUpload.DEFAULT_PART_SIZE / 1024 / 1024;
+
+                @Option(names = {"--upload-concurrency"}, description = "how many parts to upload (or objects to copy to other codenames) at once")
+                int uploadConcurrency = S3MultipartUpload.DEFAULT_MAX_IN_FLIGHT;
+
                 public enum Codename {
                     jammy, noble, resolute,
                     bullseye, bookworm, trixie,
@@ -207,25 +287,57 @@ public class SimpleDebApplication {
         @Option(names = {"-L", "--label"})
         String label;
 
+        @Option(names = {"--io-concurrency"}, description = "how many s3 requests (or local index file reads) to run at once")
+        int ioConcurrency = IoExecutor.DEFAULT_MAX_IN_FLIGHT;
+
+        @Option(names = {"--force"}, description = "write every file, even those already published unchanged")
+        boolean force;
+
+        @Option(names = {"--retain"}, description = "only list the latest N versions of each package (per architecture) in the Packages files, all versions stay in the pool")
+        Integer retain;
+
+        @Option(names = {"--all-only-arch"}, split = ",", description = "architectures a codename with only Architecture: all packages is published for, default every architecture but all")
+        Set<DebArch> allOnlyArches;
+
+        @Option(names = {"--incremental"}, description = "only render and write the Packages files whose packages changed since the last incremental run, keeping a state snapshot per codename. every index is still read, a changed Packages file is rendered completely and a codename is published again when its Release file changes (e.g. --origin, --label or the signing key)")
+        boolean incremental;
+
+        @Option(names = {"--build-concurrency"}, description = "how many codenames to build and sign at once")
+        int buildConcurrency = Runtime.getRuntime().availableProcessors();
+
+        @Option(names = {"--rebuild-manifest"}, description = "read the index files of every codename and replace its pool manifest with them (s3 input)")
+        boolean rebuildManifest;
+
+        @Option(names = {"--index-cache"}, description = "local cache of index files read from s3, validated by ETag")
+        Path indexCache = IndexCache.defaultLocation();
+
+        @Option(names = {"--no-index-cache"}, description = "download every index file from s3")
+        boolean noIndexCache;
+
         public void run() {
             log.info("{}", this);
+            Assert.isTrue(retain == null || retain >= 1, "--retain must be at least 1, got " + retain);
 
             var objectMapper = JsonMapper.builder().findAndAddModules().build();
-            run(codenames,
-                    inputGroup.getInput() == null
-                            // read from s3 pool
-                            ? s3InputIO(inputGroup.getS3().getUri(), inputGroup.getS3().getRegion(), objectMapper)
-                            // read from local filesystem pool
-                            : new BuildRepositoryIO.FileBrIo(objectMapper, inputGroup.getInput(), inputGroup.getInput()),
-                    outputGroup.getOutput() == null
-                            // write to s3 dist
-                            ? s3InputIO(outputGroup.getS3().getUri(), outputGroup.getS3().getRegion(), objectMapper)
-                            // write to local filesystem dist
-                            : new BuildRepositoryIO.FileBrIo(objectMapper, outputGroup.getOutput(), outputGroup.getOutput())
-            );
+            try (var ioExecutor = new IoExecutor(ioConcurrency)) {
+                run(codenames,
+                        inputGroup.getInput() == null
+                                // read from s3 pool
+                                ? s3InputIO(inputGroup.getS3().getUri(), inputGroup.getS3().getRegion(), objectMapper, ioExecutor)
+                                        .setRebuildManifest(rebuildManifest)
+                                        .setIndexCache(noIndexCache ? null : IndexCache.load(indexCache, objectMapper))
+                                // read from local filesystem pool
+                                : new BuildRepositoryIO.FileBrIo(objectMapper, inputGroup.getInput(), inputGroup.getInput(), ioExecutor),
+                        outputGroup.getOutput() == null
+                                // write to s3 dist
+                                ? s3InputIO(outputGroup.getS3().getUri(), outputGroup.getS3().getRegion(), objectMapper, ioExecutor).setForce(force)
+                                // write to local filesystem dist
+                                : new BuildRepositoryIO.FileBrIo(objectMapper, outputGroup.getOutput(), outputGroup.getOutput(), ioExecutor).setForce(force)
+                );
+            }
         }
 
-        BuildRepositoryIO.S3BrIo s3InputIO(URI uri, String groupRegion, JsonMapper objectMapper) {
+        BuildRepositoryIO.S3BrIo s3InputIO(URI uri, String groupRegion, JsonMapper objectMapper, IoExecutor ioExecutor) {
             S3ClientBuilder builder = S3Client.builder();
             Optional.ofNullable(groupRegion)
                     .or(() -> Optional.ofNullable(region))
@@ -237,59 +349,74 @@ public class SimpleDebApplication {
                             .build(),
                     objectMapper,
                     uri,
-                    uri
+                    uri,
+                    ioExecutor
             );
         }
 
         @SneakyThrows
         private void run(List<String> codenames, BuildRepositoryIO input, BuildRepositoryIO output) {
             var buildRepository = new BuildRepository();
-            var repoBuilder = buildRepository.repoBuilder(new DebRepoConfig().setOrigin(origin).setLabel(label));
-
-            var builders = input.readMetas();
-            List<String> codeNamesFiltered = determineCodenames(codenames, new ArrayList<>(builders.keySet()));
-            for (String codename : codeNamesFiltered) {
-                var builder = repoBuilder.buildCodeName(codename);
-                builders.getOrDefault(codename, List.of()).forEach(builder::addIndex);
-                builder.build();
+            var repoBuilder = buildRepository.repoBuilder(new DebRepoConfig().setOrigin(origin).setLabel(label).setRetainVersions(retain).setAllOnlyArches(allOnlyArches));
+            if (incremental)
+                repoBuilder.incremental(codename -> output.readPublished(codename + "/" + CodenameState.FILENAME)
+                        .flatMap(CodenameState::read)
+                        .filter(state -> {
+                            if (state.isPublished(codename, output))
+                                return true;
+                            log.info("the published Packages files of {} changed since its state was written, building it completely", codename);
+                            return false;
+                        }));
+
+            // indexes are added as they are decoded, only for the requested codenames
+            var codeNamesFound = ConcurrentHashMap.<String>newKeySet();
+            input.readMetas((codename, meta) -> {
+                codeNamesFound.add(codename);
+                if (codenames == null || codenames.isEmpty() || codenames.contains(codename))
+                    repoBuilder.addIndex(codename, meta);
+            });
+            List<String> codeNamesFiltered = determineCodenames(codenames, codeNamesFound.stream().sorted().toList());
+
+            var signingKey = signingGroup == null ? null : signingKey();
+            Map<String, FileIntegrity> files;
+            try (var executor = Executors.newFixedThreadPool(Math.max(1, buildConcurrency))) {
+                files = buildRepository.buildRepo(repoBuilder, codeNamesFiltered, signingKey, executor);
+            }
+            if (signingKey != null) {
+                var tmp = new HashMap<>(files);
+                tmp.put("repository.gpg", FileIntegrity.of(signingKey.getPublicKey(), null));
+                files = tmp;
             }
+            var report = output.writeFiles(files);
+            log.info("published {} files, {} were unchanged", report.written(), report.skipped());
+        }
 
-            var repo = repoBuilder.build();
-            var files = buildRepository.buildRepo(repo);
-            if (signingGroup != null) {
-                String signingKey;
-                String signingPubKey;
-                SigningGroup.AwsGroup param = signingGroup.getParam();
-                if (param != null) {
-                    SsmClientBuilder builder = SsmClient.builder();
-
-                    Optional.ofNullable(param.getRegion())
-                            .or(() -> Optional.ofNullable(region))
-                            .map(Region::of)
-                            .ifPresent(builder::region);
-
-                    try (var ssmClient = builder.build()) {
-                        var params = ssmClient.getParameters(GetParametersRequest.builder()
-                                        .names(param.getParamName(), param.getParamPubName())
-                                        .withDecryption(true)
-                                        .build())
-                                .parameters();
-                        signingKey = params.stream().filter(p -> p.name().equals(param.getParamName())).findAny().orElseThrow().value();
-                        signingPubKey = params.stream().filter(p -> p.name().equals(param.getParamPubName())).findAny().orElseThrow().value();
-                    }
-                } else {
-                    signingKey = Files.readString(signingGroup.getFsGroup().getPrivKey(), StandardCharsets.UTF_8);
-                    signingPubKey = Files.readString(signingGroup.getFsGroup().getPubKey(), StandardCharsets.UTF_8);
-                }
+        @SneakyThrows
+        DebRepoSigning.SigningKey signingKey() {
+            SigningGroup.AwsGroup param = signingGroup.getParam();
+            if (param != null) {
+                SsmClientBuilder builder = SsmClient.builder();
 
-                var signedFiles = buildRepository.signRepo(files, signingKey, signingPubKey);
-                var tmp = new HashMap<String, FileIntegrity>();
-                tmp.putAll(files);
-                tmp.putAll(signedFiles);
-                tmp.put("repository.gpg", FileIntegrity.of(signingPubKey, null));
-                files = tmp;
+                Optional.ofNullable(param.getRegion())
+                        .or(() -> Optional.ofNullable(region))
+                        .map(Region::of)
+                        .ifPresent(builder::region);
+
+                try (var ssmClient = builder.build()) {
+                    var params = ssmClient.getParameters(GetParametersRequest.builder()
+                                    .names(param.getParamName(), param.getParamPubName())
+                                    .withDecryption(true)
+                                    .build())
+                            .parameters();
+                    return new DebRepoSigning.SigningKey()
+                            .setPrivateKey(params.stream().filter(p -> p.name().equals(param.getParamName())).findAny().orElseThrow().value())
+                            .setPublicKey(params.stream().filter(p -> p.name().equals(param.getParamPubName())).findAny().orElseThrow().value());
+                }
+            } else {
+                return new DebRepoSigning.SigningKey()
+                        .setPrivateKey(Files.readString(signingGroup.getFsGroup().getPrivKey(), StandardCharsets.UTF_8))
+                        .setPublicKey(Files.readString(signingGroup.getFsGroup().getPubKey(), StandardCharsets.UTF_8));
             }
-            output.writeFiles(files);
         }
 
         private List<String> determineCodenames(List<String> codenames, List<String> codeNamesFound) {
@@ -367,6 +494,215 @@ public class SimpleDebApplication {
         }
     }
 
+    @Command(name = "index", aliases = {"i"}, description = "index existing .deb files (e.g. vendor packages) so repo lists them")
+    static class Index implements Runnable {
+        @Option(names = {"-i", "--input", "--input-dir"}, required = true, description = "pool directory, walked for .deb files (codename directories below it, as for repo -i)")
+        Path input;
+
+        @Option(names = {"-o", "--output", "--output-dir"}, description = "where to write the index files, mirroring the directories of the .deb files (defaults to the input)")
+        Path output;
+
+        @Option(names = {"--component"}, description = "component to list the packages in")
+        String component = "main";
+
+        @Option(names = {"--pool-prefix"}, description = "path of the input relative to the repository root, the Filename of each package is this prefix and the path of the .deb below the input")
+        String poolPrefix = PoolGc.DEFAULT_POOL_PREFIX;
+
+        @Option(names = {"--index-format"}, description = "encoding of the index files (${COMPLETION-CANDIDATES})")
+        IndexFormat indexFormat = IndexFormat.json;
+
+        @Option(names = {"--concurrency"}, description = "how many .deb files to read at once")
+        int concurrency = IoExecutor.DEFAULT_MAX_IN_FLIGHT;
+
+        @SneakyThrows
+        @Override
+        public void run() {
+            var outDir = Optional.ofNullable(output).orElse(input);
+            var indexDeb = new IndexDeb().setComponent(component);
+            var buildIndex = new BuildIndex().setFormat(indexFormat);
+            List<Path> debs;
+            try (var files = Files.walk(input)) {
+                debs = files.filter(file -> Files.isRegularFile(file) && file.getFileName().toString().endsWith(".deb")).toList();
+            }
+            log.info("indexing {} .deb files below {}", debs.size(), input);
+
+            // packages of other architectures are reported, not indexed
+            var skipped = new ConcurrentSkipListMap<Path, String>();
+            try (var ioExecutor = new IoExecutor(concurrency)) {
+                var indexed = debs.stream()
+                        .map(deb -> ioExecutor.submit("IndexDeb", () -> {
+                            var relative = input.relativize(deb);
+                            DebPackageMeta meta;
+                            try {
+                                meta = indexDeb.index(deb);
+                            } catch (IndexDeb.UnsupportedArchitectureException e) {
+                                skipped.put(relative, e.getArchitecture());
+                                return null;
+                            }
+                            meta.setFilename(StringUtils.appendIfMissing(poolPrefix, "/") + StringUtils.replaceChars(relative.toString(), '\\', '/'));
+                            var index = outDir.resolve(relative).resolveSibling(buildIndex.indexFilename(meta.getDebPackageConfig()));
+                            writeIndex(index, buildIndex.buildDebIndexToBytes(meta));
+                            return index;
+                        }))
+                        .toList();
+                indexed.forEach(CompletableFuture::join);
+                log.info("indexed {} .deb files into {}, i/o: {}", indexed.size() - skipped.size(), outDir, ioExecutor.report());
+            }
+            if (!skipped.isEmpty())
+                log.warn("skipped {} .deb files of unsupported architectures (supported: {}): {}",
+                        skipped.size(), Arrays.toString(DebArch.values()), skipped);
+        }
+
+        @SneakyThrows
+        static void writeIndex(Path index, byte[] bytes) {
+            Files.createDirectories(index.getParent());
+            Files.write(index, bytes);
+        }
+    }
+
+    @Data
+    @Command(name = "gc", description = "delete .deb files no index lists, and index files dropped by --retain, from a pool")
+    static class Gc implements Runnable {
+        @ArgGroup(multiplicity = "1")
+        BuildRepo.InputGroup inputGroup;
+
+        @Option(names = {"-r", "--region", "--default-region"})
+        String region;
+
+        @Option(names = {"--retain"}, description = "keep the latest N versions of each package (per codename and architecture), delete the index files of older ones and their .deb files")
+        Integer retain;
+
+        @Option(names = {"--grace-hours"}, description = "keep objects modified more recently, builds upload the .deb before its index")
+        long graceHours = 24;
+
+        @Option(names = {"--dry-run"}, description = "only log what would be deleted")
+        boolean dryRun;
+
+        @Option(names = {"--pool-prefix"}, description = "path of the pool relative to the repository root, as given to index --pool-prefix: the Filename of each package starts with it")
+        String poolPrefix = PoolGc.DEFAULT_POOL_PREFIX;
+
+        @Option(names = {"--io-concurrency"}, description = "how many s3 requests (or local index file reads) to run at once")
+        int ioConcurrency = IoExecutor.DEFAULT_MAX_IN_FLIGHT;
+
+        @Override
+        public void run() {
+            log.info("{}", this);
+            Assert.isTrue(retain == null || retain >= 1, "--retain must be at least 1, got " + retain);
+
+            var objectMapper = JsonMapper.builder().findAndAddModules().build();
+            try (var ioExecutor = new IoExecutor(ioConcurrency)) {
+                var pool = pool(inputGroup, region, objectMapper, ioExecutor);
+                var report = new PoolGc(pool, ioExecutor, poolPrefix).collect(retain, Duration.ofHours(graceHours), dryRun);
+                if (!report.failed().isEmpty())
+                    throw new IllegalStateException("could not delete " + report.failed().size() + " objects");
+            }
+        }
+
+        static PoolGc.Pool pool(BuildRepo.InputGroup inputGroup, String region, JsonMapper objectMapper, IoExecutor ioExecutor) {
+            if (inputGroup.getInput() != null)
+                return new PoolGc.FilePool(inputGroup.getInput(), objectMapper, ioExecutor);
+            var uri = inputGroup.getS3().getUri();
+            S3ClientBuilder builder = S3Client.builder();
+            Optional.ofNullable(inputGroup.getS3().getRegion())
+                    .or(() -> Optional.ofNullable(region))
+                    .map(Region::of)
+                    .map(builder::region);
+            var path = StringUtils.strip(uri.getPath(), "/");
+            return new PoolGc.S3Pool(builder.forcePathStyle(true).build(), ioExecutor, objectMapper, uri.getHost(), path.isEmpty() ? "" : path + "/");
+        }
+    }
+
+    @Data
+    @Command(name = "promote", description = "copy packages from one codename of a pool to another (server side on s3), then update the target's repository incrementally")
+    static class Promote implements Runnable {
+        @ArgGroup(multiplicity = "1")
+        BuildRepo.InputGroup inputGroup;
+
+        @Option(names = {"--from"}, required = true, description = "source codename")
+        String from;
+
+        @Option(names = {"--to"}, required = true, description = "target codename")
+        String to;
+
+        @Option(names = {"-p", "--package"}, description = "name or name=version of the packages to promote, with * and ? globs (all packages, if none specified)")
+        List<String> packages;
+
+        @ArgGroup
+        BuildRepo.OutputGroup outputGroup;
+
+        @ArgGroup
+        BuildRepo.SigningGroup signingGroup;
+
+        @Option(names = {"-r", "--region", "--default-region"})
+        String region;
+
+        @Option(names = {"-O", "--origin"})
+        String origin;
+
+        @Option(names = {"-L", "--label"})
+        String label;
+
+        @Option(names = {"--io-concurrency"}, description = "how many s3 requests (copies, or local index file reads and copies) to run at once")
+        int ioConcurrency = IoExecutor.DEFAULT_MAX_IN_FLIGHT;
+
+        @Option(names = {"--pool-prefix"}, description = "path of the pool relative to the repository root, as given to index --pool-prefix: a package whose Filename is in the source codename is copied along with its index")
+        String poolPrefix = PoolGc.DEFAULT_POOL_PREFIX;
+
+        // passed on to the repo build of the target codename
+
+        @Option(names = {"--force"}, description = "write every file, even those already published unchanged")
+        boolean force;
+
+        @Option(names = {"--retain"}, description = "only list the latest N versions of each package (per architecture) in the Packages files, all versions stay in the pool")
+        Integer retain;
+
+        @Option(names = {"--all-only-arch"}, split = ",", description = "architectures a codename with only Architecture: all packages is published for, default every architecture but all")
+        Set<DebArch> allOnlyArches;
+
+        @Option(names = {"--build-concurrency"}, description = "how many codenames to build and sign at once")
+        int buildConcurrency = Runtime.getRuntime().availableProcessors();
+
+        @Option(names = {"--index-cache"}, description = "local cache of index files read from s3, validated by ETag")
+        Path indexCache = IndexCache.defaultLocation();
+
+        @Option(names = {"--no-index-cache"}, description = "download every index file from s3")
+        boolean noIndexCache;
+
+        @Override
+        public void run() {
+            log.info("{}", this);
+            Assert.isTrue(retain == null || retain >= 1, "--retain must be at least 1, got " + retain);
+
+            var objectMapper = JsonMapper.builder().findAndAddModules().build();
+            try (var ioExecutor = new IoExecutor(ioConcurrency)) {
+                var pool = Gc.pool(inputGroup, region, objectMapper, ioExecutor);
+                new PoolPromote(pool, ioExecutor, poolPrefix).promote(from, to, PoolPromote.selection(packages));
+            }
+            if (outputGroup == null) {
+                log.info("no output given, run repo --incremental -c {} to publish the promoted packages", to);
+                return;
+            }
+
+            var repo = new BuildRepo();
+            repo.setInputGroup(inputGroup);
+            repo.setOutputGroup(outputGroup);
+            repo.setSigningGroup(signingGroup);
+            repo.setCodenames(List.of(to));
+            repo.setRegion(region);
+            repo.setOrigin(origin);
+            repo.setLabel(label);
+            repo.setIoConcurrency(ioConcurrency);
+            repo.setForce(force);
+            repo.setRetain(retain);
+            repo.setAllOnlyArches(allOnlyArches);
+            repo.setBuildConcurrency(buildConcurrency);
+            repo.setIndexCache(indexCache);
+            repo.setNoIndexCache(noIndexCache);
+            repo.setIncremental(true);
+            repo.run();
+        }
+    }
+
     @Command(name = "gpg", aliases = {"g"}, description = "gpg functions", subcommands = {
             Gpg.GpgGenKey.class
     })
@@ -0,0 +1,80 @@
+package deb.simple.build_deb;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import deb.simple.DebArch;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BuildDebAsyncTest {
+
+    DebPackageConfig config() {
+        return new DebPackageConfig()
+                .setMeta(new DebPackageConfig.PackageMeta().setName("async").setVersion("0.0.1").setArch(DebArch.amd64))
+                .setControl(new DebPackageConfig.ControlExtras().setMaintainer("maintainer").setDescription("description"))
+                .setFiles(new DebPackageConfig.DebFileSpec()
+                        .setControlFiles(List.of())
+                        .setDataFiles(List.of(new DebPackageConfig.TarFileSpec.TextTarFileSpec()
+                                .setContent("#!/usr/bin/env bash\necho async\n")
+                                .setPath("/usr/bin/async")
+                                .setMode(0x755))));
+    }
+
+    @SneakyThrows
+    @Test
+    void test_inMemory() {
+        var progress = new AtomicLong();
+        var result = new BuildDebAsync().buildDebToArchive(config(), progress::set).get();
+
+        assertThat(result.getDeb(), is(notNullValue()));
+        assertThat(result.getDebLocation(), is(nullValue()));
+        assertEquals(result.getDeb().length, (long) result.getMeta().getSize());
+        assertEquals(FileIntegrity.of(result.getDeb(), null).getSha256(), result.getMeta().getHashes().getSha256());
+        assertThat(progress.get(), is(greaterThan(0L)));
+        assertThat(result.getTimings().getTotal(), is(notNullValue()));
+    }
+
+    @SneakyThrows
+    @Test
+    void test_toDirectory() {
+        try (var fs = Jimfs.newFileSystem(Configuration.unix())) {
+            var outDir = fs.getPath("/out");
+            var result = new BuildDebAsync().buildDeb(config(), outDir, true, null).get();
+
+            assertEquals(outDir.resolve("async_0.0.1_amd64.deb"), result.getDebLocation());
+            assertEquals(outDir.resolve("async_0.0.1_amd64" + DebPackageConfig.PackageMeta.SD_INDEX_EXTENSION), result.getIndexLocation());
+            assertEquals((long) result.getMeta().getSize(), Files.size(result.getDebLocation()));
+            assertThat(result.getDeb(), is(nullValue()));
+        }
+    }
+
+    @Test
+    void test_cancelBeforeStart() {
+        var release = new CountDownLatch(1);
+        var buildDebAsync = new BuildDebAsync().setExecutor(task -> Thread.ofVirtual().start(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            task.run();
+        }));
+
+        var future = buildDebAsync.buildDebToArchive(config(), null);
+        future.cancel(true);
+        release.countDown();
+
+        assertThrows(CancellationException.class, future::join);
+    }
+}
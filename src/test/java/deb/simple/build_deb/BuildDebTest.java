@@ -13,18 +13,26 @@ import jakarta.validation.Validator;
 import jakarta.validation.ValidatorFactory;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.compress.archivers.ar.ArArchiveEntry;
+import org.apache.commons.compress.archivers.ar.ArArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
 import org.junit.jupiter.api.Test;
 import org.testcontainers.containers.GenericContainer;
 import org.testcontainers.images.builder.Transferable;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
@@ -232,5 +240,42 @@ class BuildDebTest {
         }
     }
 
+    @SneakyThrows
+    @Test
+    void test_buildDebStreaming() {
+        var config = validate(new DebPackageConfig()
+                .setMeta(new PackageMeta().setName("streaming").setVersion("0.0.1").setArch(DebArch.amd64))
+                .setControl(new ControlExtras().setMaintainer("m").setDescription("d"))
+                .setFiles(new DebFileSpec().setControlFiles(List.of()).setDataFiles(List.of(
+                        new DebPackageConfig.TarFileSpec.TextTarFileSpec().setContent("streamed").setPath("/etc/streaming")))));
+
+        var tail = new ByteArrayOutputStream();
+        var integrity = new IntegrityOutputStream(tail);
+        byte[] head = buildDeb.buildDebStreaming(config, integrity);
+
+        var deb = new ByteArrayOutputStream();
+        deb.write(head);
+        tail.writeTo(deb);
+
+        var names = new ArrayList<String>();
+        try (var ar = new ArArchiveInputStream(new ByteArrayInputStream(deb.toByteArray()))) {
+            ArArchiveEntry entry;
+            while ((entry = ar.getNextEntry()) != null) {
+                names.add(entry.getName());
+                if (entry.getName().equals("data.tar.gz")) {
+                    try (var tar = new TarArchiveInputStream(new GZIPInputStream(CloseShieldInputStream.wrap(ar)))) {
+                        assertEquals("etc/streaming", tar.getNextEntry().getName());
+                        assertEquals("streamed", new String(tar.readAllBytes(), StandardCharsets.UTF_8));
+                    }
+                }
+            }
+        }
+        assertEquals(List.of("debian-binary", "control.tar.gz", "data.tar.gz"), names);
+
+        var tailIntegrity = integrity.toFileIntegrity(null);
+        assertEquals(tail.size(), tailIntegrity.getSize());
+        assertEquals(FileIntegrity.of(tail.toByteArray(), null).getSha256(), tailIntegrity.getSha256());
+    }
+
     // todo test about file modes
 }
@@ -0,0 +1,134 @@
+package deb.simple.build_deb;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import deb.simple.DebArch;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+@Slf4j
+class BuildIndexTest {
+    final ObjectMapper objectMapper = JsonMapper.builder().findAndAddModules().build();
+
+    static DebPackageConfig config(String name, int files, int contentSize) {
+        var dataFiles = IntStream.range(0, files)
+                .<DebPackageConfig.TarFileSpec>mapToObj(i -> i % 2 == 0
+                        ? new DebPackageConfig.TarFileSpec.TextTarFileSpec().setContent("x".repeat(contentSize)).setPath("/usr/share/" + name + "/" + i)
+                        : new DebPackageConfig.TarFileSpec.BinaryTarFileSpec().setContent(new byte[contentSize]).setPath("/usr/lib/" + name + "/" + i))
+                .toList();
+        return new DebPackageConfig()
+                .setMeta(new DebPackageConfig.PackageMeta().setArch(DebArch.amd64).setVersion("0.0.1").setName(name))
+                .setControl(new DebPackageConfig.ControlExtras().setMaintainer("maintainer").setDescription("description"))
+                .setFiles(new DebPackageConfig.DebFileSpec().setDataFiles(dataFiles).setControlFiles(List.of()));
+    }
+
+    /**
+     * an index as written before the schema was versioned
+     */
+    byte[] legacyIndex(DebPackageConfig config) throws Exception {
+        return objectMapper.writeValueAsBytes(new DebPackageMeta()
+                .setDebPackageConfig(config)
+                .setHashes(FileIntegrity.of(config.getMeta().getName(), null))
+                .setSize(10L));
+    }
+
+    @Test
+    void test_slimIndex() {
+        var config = config("hello", 4, 100);
+        var index = new String(new BuildIndex().buildDebIndexToBytes("deb".getBytes(StandardCharsets.UTF_8), config), StandardCharsets.UTF_8);
+
+        assertThat(index, containsString("\"schemaVersion\":2"));
+        assertThat(index, not(containsString("dataFiles")));
+        assertThat(index, not(containsString("xxxx")));
+    }
+
+    @Test
+    void test_readerSkipsFilesOfLegacyIndex() throws Exception {
+        var config = config("hello", 4, 100);
+        var legacy = legacyIndex(config);
+
+        var meta = new DebPackageMetaReader(objectMapper).read(legacy);
+        assertNull(meta.getSchemaVersion());
+        assertNull(meta.getDebPackageConfig().getFiles());
+
+        var full = objectMapper.readValue(legacy, DebPackageMeta.class);
+        var packagesIndex = new BuildPackagesIndex("jammy");
+        assertEquals(packagesIndex.metaToIndex(full), packagesIndex.metaToIndex(meta));
+    }
+
+    @Test
+    void test_binaryFormats() {
+        var config = config("hello", 4, 100);
+        var json = new BuildIndex().buildDebIndexToBytes("deb".getBytes(StandardCharsets.UTF_8), config);
+        var reader = new DebPackageMetaReader(objectMapper);
+        var packagesIndex = new BuildPackagesIndex("jammy");
+
+        for (var format : IndexFormat.values()) {
+            var buildIndex = new BuildIndex().setFormat(format);
+            var bytes = buildIndex.buildDebIndexToBytes("deb".getBytes(StandardCharsets.UTF_8), config);
+            assertEquals(format, IndexFormat.of(buildIndex.indexFilename(config)).orElseThrow());
+            assertEquals(packagesIndex.metaToIndex(reader.read(json)), packagesIndex.metaToIndex(reader.read(format, bytes)));
+        }
+    }
+
+    /**
+     * heap and parse time of 50k legacy indexes, read completely and with {@link DebPackageMetaReader}, and of the
+     * same indexes as slim smile
+     */
+    @Test
+    @EnabledIfEnvironmentVariable(named = "BENCHMARK", matches = "true")
+    void benchmark_readIndexes() throws Exception {
+        int count = 50_000;
+        var indexes = new ArrayList<byte[]>(count);
+        for (int i = 0; i < count; i++)
+            indexes.add(legacyIndex(config("package" + i, 20, 512)));
+        log.info("{} legacy indexes of {} bytes on average", count, indexes.stream().mapToInt(b -> b.length).sum() / count);
+
+        var reader = new DebPackageMetaReader(objectMapper);
+        Function<byte[], DebPackageMeta> full = bytes -> {
+            try {
+                return objectMapper.readValue(bytes, DebPackageMeta.class);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        };
+        var smileIndexes = indexes.stream().map(reader::read).map(meta -> {
+            try {
+                return IndexFormat.smile.getObjectMapper().writeValueAsBytes(meta);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }).toList();
+        for (int round = 0; round < 3; round++) {
+            measure("full", indexes, full);
+            measure("streaming", indexes, reader::read);
+            measure("streaming smile (slim)", smileIndexes, bytes -> reader.read(IndexFormat.smile, bytes));
+        }
+    }
+
+    static void measure(String name, List<byte[]> indexes, Function<byte[], DebPackageMeta> read) {
+        var memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        long heapBefore = memory.getHeapMemoryUsage().getUsed();
+        long start = System.nanoTime();
+        var metas = indexes.stream().map(read).toList();
+        long elapsed = System.nanoTime() - start;
+        System.gc();
+        long heapAfter = memory.getHeapMemoryUsage().getUsed();
+        log.info("{}: parsed {} indexes in {}ms, retaining ~{} MiB", name, metas.size(), elapsed / 1_000_000, (heapAfter - heapBefore) / 1024 / 1024);
+    }
+}
@@ -0,0 +1,41 @@
+package deb.simple.build_deb;
+
+import deb.simple.DebArch;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BuildPackagesIndexTest {
+
+    static DebPackageMeta meta(String name, String version, DebArch arch) {
+        return new DebPackageMeta()
+                .setSize(10L)
+                .setHashes(FileIntegrity.of(name.getBytes(StandardCharsets.UTF_8), null))
+                .setDebPackageConfig(new DebPackageConfig()
+                        .setMeta(new DebPackageConfig.PackageMeta().setArch(arch).setVersion(version).setName(name))
+                        .setControl(new DebPackageConfig.ControlExtras().setMaintainer("maintainer").setDescription("description"))
+                        .setFiles(new DebPackageConfig.DebFileSpec().setDataFiles(List.of()).setControlFiles(List.of())));
+    }
+
+    @Test
+    void test_sharedPoolDirectory() {
+        assertEquals("main/h/hello", BuildPackagesIndex.sharedPoolDirectory("main", "hello"));
+        assertEquals("main/libs/libssl3", BuildPackagesIndex.sharedPoolDirectory("main", "libssl3"));
+        assertEquals("contrib/l/lib", BuildPackagesIndex.sharedPoolDirectory("contrib", "lib"));
+    }
+
+    @Test
+    void test_filename() {
+        var bpi = new BuildPackagesIndex("/jammy/");
+        var meta = meta("hello", "0.0.1", DebArch.amd64);
+        assertThat(bpi.metaToIndex(meta), containsString("Filename: pool/jammy/hello_0.0.1_amd64.deb\n"));
+
+        meta.setFilename("pool/main/h/hello/hello_0.0.1_amd64.deb");
+        assertThat(bpi.metaToIndex(meta), containsString("Filename: pool/main/h/hello/hello_0.0.1_amd64.deb\n"));
+    }
+}
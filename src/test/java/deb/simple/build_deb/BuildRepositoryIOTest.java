@@ -0,0 +1,171 @@
+package deb.simple.build_deb;
+
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import deb.simple.DebArch;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BuildRepositoryIOTest {
+    final IoExecutor ioExecutor = new IoExecutor(4);
+
+    @AfterEach
+    void closeIoExecutor() {
+        ioExecutor.close();
+    }
+
+    @Test
+    void test_fileWriteSkipsUnchanged(@TempDir Path dir) throws Exception {
+        var io = new BuildRepositoryIO.FileBrIo(JsonMapper.builder().build(), dir, dir, ioExecutor);
+        var files = Map.of(
+                "jammy/Release", FileIntegrity.of("release".getBytes(StandardCharsets.UTF_8), "jammy/Release"),
+                "jammy/main/binary-amd64/Packages", FileIntegrity.of("packages".getBytes(StandardCharsets.UTF_8), "jammy/main/binary-amd64/Packages"));
+
+        assertEquals(new BuildRepositoryIO.WriteReport(2, 0), io.writeFiles(files));
+        assertEquals(new BuildRepositoryIO.WriteReport(0, 2), io.writeFiles(files));
+
+        // same size, different content
+        Files.writeString(dir.resolve("jammy/Release"), "RELEASE");
+        assertEquals(new BuildRepositoryIO.WriteReport(1, 1), io.writeFiles(files));
+        assertEquals("release", Files.readString(dir.resolve("jammy/Release")));
+
+        assertEquals(new BuildRepositoryIO.WriteReport(2, 0), io.setForce(true).writeFiles(files));
+    }
+
+    static CodenameState state(Map<String, FileIntegrity> files) {
+        var state = new CodenameState();
+        state.getPackages().put("main/binary-amd64/Packages", new CodenameState.PackagesState()
+                .setPackages(files.get("jammy/main/binary-amd64/Packages"))
+                .setPackagesGz(files.get("jammy/main/binary-amd64/Packages.gz")));
+        return state;
+    }
+
+    @Test
+    void test_stateVerifiedAgainstPublished(@TempDir Path dir) throws Exception {
+        var files = Map.of(
+                "jammy/main/binary-amd64/Packages", FileIntegrity.of("packages".getBytes(StandardCharsets.UTF_8), "jammy/main/binary-amd64/Packages"),
+                "jammy/main/binary-amd64/Packages.gz", FileIntegrity.of("packages.gz".getBytes(StandardCharsets.UTF_8), "jammy/main/binary-amd64/Packages.gz"));
+        var state = state(files);
+
+        var io = new BuildRepositoryIO.FileBrIo(JsonMapper.builder().build(), dir, dir, ioExecutor);
+        io.writeFiles(files);
+        assertTrue(state.isPublished("jammy", io));
+        // a full build rewrote the file after the state was written
+        Files.writeString(dir.resolve("jammy/main/binary-amd64/Packages"), "PACKAGES");
+        assertFalse(state.isPublished("jammy", io));
+
+        var dist = URI.create("s3://bucket/dist");
+        var s3Io = new BuildRepositoryIO.S3BrIo(new StubS3Client(), JsonMapper.builder().build(), dist, dist, ioExecutor);
+        assertFalse(state.isPublished("jammy", s3Io));
+        s3Io.writeFiles(files);
+        assertTrue(state.isPublished("jammy", s3Io));
+        s3Io.writeFiles(Map.of("jammy/main/binary-amd64/Packages", FileIntegrity.of("PACKAGES".getBytes(StandardCharsets.UTF_8), "jammy/main/binary-amd64/Packages")));
+        assertFalse(state.isPublished("jammy", s3Io));
+    }
+
+    @Test
+    void test_fileReadMetasIntoSink(@TempDir Path dir) throws Exception {
+        var objectMapper = JsonMapper.builder().findAndAddModules().build();
+        var buildIndex = new BuildIndex();
+        for (var codename : List.of("jammy", "noble"))
+            for (var name : List.of("hello", "world")) {
+                var config = BuildIndexTest.config(name, 1, 10);
+                var index = dir.resolve(codename).resolve(buildIndex.indexFilename(config));
+                Files.createDirectories(index.getParent());
+                Files.write(index, buildIndex.buildDebIndexToBytes(name.getBytes(StandardCharsets.UTF_8), config));
+            }
+        var io = new BuildRepositoryIO.FileBrIo(objectMapper, dir, dir, ioExecutor);
+
+        var pushed = new ConcurrentHashMap<String, Set<String>>();
+        io.readMetas((codename, meta) -> pushed.computeIfAbsent(codename, ignored -> ConcurrentHashMap.newKeySet())
+                .add(meta.getDebPackageConfig().getMeta().getName()));
+
+        assertEquals(Map.of("jammy", Set.of("hello", "world"), "noble", Set.of("hello", "world")), pushed);
+    }
+
+    @Test
+    void test_s3ReadMetasSkipsSharedPool() {
+        var s3Client = new StubS3Client();
+        var objectMapper = JsonMapper.builder().findAndAddModules().build();
+        var hello = BuildPackagesIndexTest.meta("hello", "0.0.1", DebArch.amd64);
+        hello.setFilename("pool/main/h/hello/hello_0.0.1_amd64.deb");
+        s3Client.put("dist/pool/jammy/" + IndexFormat.json.indexFilename(hello.getDebPackageConfig().getMeta()), new BuildIndex().buildDebIndexToBytes(hello));
+        s3Client.put("dist/pool/main/h/hello/hello_0.0.1_amd64.deb", "hello".getBytes(StandardCharsets.UTF_8));
+        s3Client.put("dist/pool/main/libs/libssl3/libssl3_3.0.0_amd64.deb", "libssl3".getBytes(StandardCharsets.UTF_8));
+        var io = new BuildRepositoryIO.S3BrIo(s3Client, objectMapper, URI.create("s3://bucket/dist/pool"), URI.create("s3://bucket/dist"), ioExecutor)
+                .setRebuildManifest(true);
+
+        assertEquals(Set.of("jammy"), io.readMetas().keySet());
+        assertTrue(s3Client.objects.keySet().stream().anyMatch(key -> key.startsWith("dist/pool/jammy/" + PoolManifest.MANIFEST_DIRECTORY)));
+        assertFalse(s3Client.objects.keySet().stream().anyMatch(key -> key.startsWith("dist/pool/main/" + PoolManifest.MANIFEST_DIRECTORY)));
+    }
+
+    @Test
+    void test_s3WriteSkipsUnchanged() {
+        var s3Client = new StubS3Client();
+        var dist = URI.create("s3://bucket/dist");
+        var io = new BuildRepositoryIO.S3BrIo(s3Client, JsonMapper.builder().build(), dist, dist, ioExecutor);
+        var files = Map.of(
+                "jammy/Release", FileIntegrity.of("release".getBytes(StandardCharsets.UTF_8), "jammy/Release"),
+                "jammy/main/binary-amd64/Packages", FileIntegrity.of("packages".getBytes(StandardCharsets.UTF_8), "jammy/main/binary-amd64/Packages"));
+        var publishedState = "dist/" + BuildRepositoryIO.PUBLISHED_STATE_FILENAME;
+
+        // nothing published: one HEAD per file, all written, then the published state
+        assertEquals(new BuildRepositoryIO.WriteReport(2, 0), io.writeFiles(files));
+        assertEquals(2, s3Client.count("HeadObject"));
+        assertEquals(3, s3Client.count("PutObject"));
+        assertArrayEquals("release".getBytes(StandardCharsets.UTF_8), s3Client.content("dist/jammy/Release"));
+
+        // the published state covers every file and the listing shows the same ETags: no HEAD, nothing written
+        s3Client.calls.clear();
+        assertEquals(new BuildRepositoryIO.WriteReport(0, 2), io.writeFiles(files));
+        assertEquals(1, s3Client.count("ListObjectsV2"));
+        assertEquals(0, s3Client.count("HeadObject"));
+        assertEquals(0, s3Client.count("PutObject"));
+
+        // without the published state, the checksums of the objects tell they are unchanged
+        s3Client.objects.remove(publishedState);
+        s3Client.calls.clear();
+        assertEquals(new BuildRepositoryIO.WriteReport(0, 2), io.writeFiles(files));
+        assertEquals(2, s3Client.count("HeadObject"));
+        assertEquals(1, s3Client.count("PutObject"));
+        assertTrue(s3Client.objects.containsKey(publishedState));
+
+        // a changed file is written, the other one skipped
+        var changed = new HashMap<>(files);
+        changed.put("jammy/Release", FileIntegrity.of("RELEASE".getBytes(StandardCharsets.UTF_8), "jammy/Release"));
+        assertEquals(new BuildRepositoryIO.WriteReport(1, 1), io.writeFiles(changed));
+        assertArrayEquals("RELEASE".getBytes(StandardCharsets.UTF_8), s3Client.content("dist/jammy/Release"));
+
+        // an object overwritten outside of the published state is checked by its checksum and repaired
+        s3Client.put("dist/jammy/main/binary-amd64/Packages", "other".getBytes(StandardCharsets.UTF_8));
+        s3Client.calls.clear();
+        assertEquals(new BuildRepositoryIO.WriteReport(1, 1), io.writeFiles(changed));
+        assertEquals(1, s3Client.count("HeadObject"));
+        assertArrayEquals("packages".getBytes(StandardCharsets.UTF_8), s3Client.content("dist/jammy/main/binary-amd64/Packages"));
+
+        // so is a deleted one
+        s3Client.objects.remove("dist/jammy/Release");
+        s3Client.calls.clear();
+        assertEquals(new BuildRepositoryIO.WriteReport(1, 1), io.writeFiles(changed));
+        assertEquals(1, s3Client.count("HeadObject"));
+        assertArrayEquals("RELEASE".getBytes(StandardCharsets.UTF_8), s3Client.content("dist/jammy/Release"));
+
+        assertEquals(new BuildRepositoryIO.WriteReport(2, 0), io.setForce(true).writeFiles(changed));
+    }
+}
@@ -8,19 +8,29 @@ import org.testcontainers.containers.Container;
 import org.testcontainers.containers.GenericContainer;
 import org.testcontainers.images.builder.Transferable;
 
+import java.io.ByteArrayInputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 @Slf4j
 class BuildRepositoryTest {
@@ -31,7 +41,7 @@ class BuildRepositoryTest {
         var repoBuilder = buildRepository.repoBuilder(new DebRepoConfig(), Instant.ofEpochMilli(1751437482822L));
         repoBuilder.buildCodeName("jammy")
                 .addIndex(new DebPackageMeta()
-                        .setSize(10)
+                        .setSize(10L)
                         .setHashes(FileIntegrity.of("hello".getBytes(StandardCharsets.UTF_8), null))
                         .setDebPackageConfig(new DebPackageConfig()
                                 .setMeta(new DebPackageConfig.PackageMeta()
@@ -93,6 +103,216 @@ class BuildRepositoryTest {
         ), fileStrings);
     }
 
+    @Test
+    void test_partitionedByComponentAndArch() {
+        var buildRepository = new BuildRepository();
+        var repoBuilder = buildRepository.repoBuilder(new DebRepoConfig(), Instant.ofEpochMilli(1751437482822L));
+        var contrib = BuildPackagesIndexTest.meta("extra", "0.0.1", DebArch.amd64);
+        contrib.getDebPackageConfig().getControl().setSection("contrib");
+        repoBuilder.buildCodeName("jammy")
+                .addIndex(BuildPackagesIndexTest.meta("hello", "0.0.1", DebArch.amd64))
+                .addIndex(BuildPackagesIndexTest.meta("hello", "0.0.1", DebArch.arm64))
+                .addIndex(contrib)
+                .build();
+
+        var files = buildRepository.buildRepo(repoBuilder.build());
+        Function<String, String> packages = path -> new String(files.get("jammy/" + path + "/Packages").getContent(), StandardCharsets.UTF_8);
+
+        assertThat(packages.apply("main/binary-amd64"), allOf(containsString("Package: hello\n"), containsString("Architecture: amd64\n"), not(containsString("extra"))));
+        assertThat(packages.apply("main/binary-arm64"), allOf(containsString("Package: hello\n"), not(containsString("amd64"))));
+        assertThat(packages.apply("contrib/binary-amd64"), allOf(containsString("Package: extra\n"), not(containsString("hello"))));
+        assertEquals("", packages.apply("contrib/binary-arm64"));
+    }
+
+    @Test
+    void test_archAllInEveryArch() {
+        var buildRepository = new BuildRepository();
+        var repoBuilder = buildRepository.repoBuilder(new DebRepoConfig(), Instant.ofEpochMilli(1751437482822L));
+        repoBuilder.buildCodeName("jammy")
+                .addIndex(BuildPackagesIndexTest.meta("hello", "0.0.1", DebArch.amd64))
+                .addIndex(BuildPackagesIndexTest.meta("hello", "0.0.1", DebArch.arm64))
+                .addIndex(BuildPackagesIndexTest.meta("docs", "0.0.1", DebArch.all))
+                .build();
+
+        var files = buildRepository.buildRepo(repoBuilder.build());
+        Function<String, String> packages = path -> new String(files.get("jammy/" + path + "/Packages").getContent(), StandardCharsets.UTF_8);
+
+        for (var arch : List.of("amd64", "arm64"))
+            assertThat(packages.apply("main/binary-" + arch), allOf(
+                    containsString("Package: hello\nVersion: 0.0.1\nArchitecture: " + arch + "\n"),
+                    containsString("Package: docs\nVersion: 0.0.1\nArchitecture: all\n")));
+        assertThat(packages.apply("main/binary-all"), allOf(containsString("Package: docs\n"), not(containsString("hello"))));
+    }
+
+    @Test
+    void test_concurrentBuildSameAsSequential() {
+        var codenameMetas = new LinkedHashMap<String, List<DebPackageMeta>>();
+        for (var codename : List.of("bullseye", "bookworm", "trixie", "jammy", "noble", "resolute"))
+            codenameMetas.put(codename, List.of(
+                    BuildPackagesIndexTest.meta("hello", "0.0.1", DebArch.amd64),
+                    BuildPackagesIndexTest.meta("hello", "0.0.1", DebArch.arm64),
+                    BuildPackagesIndexTest.meta("docs", "0.0.1", DebArch.all)));
+
+        var buildRepository = new BuildRepository();
+        var sequential = buildRepository.repoBuilder(new DebRepoConfig(), Instant.ofEpochMilli(1751437482822L));
+        codenameMetas.forEach((codename, metas) -> {
+            var builder = sequential.buildCodeName(codename);
+            metas.forEach(builder::addIndex);
+            builder.build();
+        });
+        var expected = buildRepository.buildRepo(sequential.build());
+
+        try (var executor = Executors.newFixedThreadPool(4)) {
+            var files = buildRepository.buildRepo(buildRepository.repoBuilder(new DebRepoConfig(), Instant.ofEpochMilli(1751437482822L)), codenameMetas, null, executor);
+            assertEquals(List.copyOf(expected.keySet()), List.copyOf(files.keySet()));
+            expected.forEach((path, file) -> assertEquals(file.getSha256(), files.get(path).getSha256(), path));
+        }
+    }
+
+    @Test
+    void test_concurrentAddIndex() {
+        var metas = IntStream.range(0, 2000)
+                .mapToObj(i -> BuildPackagesIndexTest.meta("package" + i % 500, "0.0." + i / 500, i % 3 == 0 ? DebArch.arm64 : DebArch.amd64))
+                .toList();
+
+        var buildRepository = new BuildRepository();
+        var sequential = buildRepository.repoBuilder(new DebRepoConfig(), Instant.ofEpochMilli(1751437482822L));
+        var shuffled = new ArrayList<>(metas);
+        Collections.shuffle(shuffled, new Random(1));
+        shuffled.forEach(meta -> sequential.addIndex("jammy", meta));
+        sequential.buildCodeName("jammy").build();
+        var expected = buildRepository.buildRepo(sequential.build());
+
+        var concurrent = buildRepository.repoBuilder(new DebRepoConfig(), Instant.ofEpochMilli(1751437482822L));
+        metas.parallelStream().forEach(meta -> concurrent.addIndex("jammy", meta));
+        concurrent.buildCodeName("jammy").build();
+        var files = buildRepository.buildRepo(concurrent.build());
+
+        assertEquals(Set.of("jammy"), concurrent.codenames());
+        assertEquals(List.copyOf(expected.keySet()), List.copyOf(files.keySet()));
+        expected.forEach((path, file) -> assertEquals(file.getSha256(), files.get(path).getSha256(), path));
+    }
+
+    @Test
+    void test_identicalPackagesWrittenOnce() {
+        var buildRepository = new BuildRepository();
+        var repoBuilder = buildRepository.repoBuilder(new DebRepoConfig(), Instant.ofEpochMilli(1751437482822L));
+        for (var codename : List.of("jammy", "noble")) {
+            // shared pool: the stanzas do not depend on the codename
+            repoBuilder.addIndex(codename, BuildPackagesIndexTest.meta("hello", "0.0.1", DebArch.amd64).setFilename("pool/main/h/hello/hello_0.0.1_amd64.deb"));
+            // codename pool: the stanzas differ by their Filename
+            repoBuilder.addIndex(codename, BuildPackagesIndexTest.meta("world", "0.0.1", DebArch.arm64));
+        }
+        var files = buildRepository.buildRepo(repoBuilder, List.of("jammy", "noble"), null, Runnable::run);
+
+        assertThat(files.get("noble/main/binary-amd64/Packages"), sameInstance(files.get("jammy/main/binary-amd64/Packages")));
+        assertThat(files.get("noble/main/binary-amd64/Packages.gz"), sameInstance(files.get("jammy/main/binary-amd64/Packages.gz")));
+        assertThat(files.get("noble/main/binary-arm64/Packages").getSha256(), not(files.get("jammy/main/binary-arm64/Packages").getSha256()));
+        assertEquals(2, repoBuilder.packagesMemo.hits());
+    }
+
+    @Test
+    void test_incremental() {
+        var buildRepository = new BuildRepository();
+        var published = new HashMap<String, FileIntegrity>();
+        Function<List<DebPackageMeta>, Map<String, FileIntegrity>> build = packages -> {
+            var repoBuilder = buildRepository.repoBuilder(new DebRepoConfig(), Instant.ofEpochMilli(1751437482822L))
+                    .incremental(codename -> Optional.ofNullable(published.get(codename + "/" + CodenameState.FILENAME))
+                            .flatMap(state -> CodenameState.read(state.getContent())));
+            packages.forEach(meta -> repoBuilder.addIndex("jammy", meta));
+            var files = buildRepository.buildRepo(repoBuilder, List.of("jammy"), null, Runnable::run);
+            published.putAll(files);
+            return files;
+        };
+        var metas = new ArrayList<>(List.of(
+                BuildPackagesIndexTest.meta("hello", "0.0.1", DebArch.amd64),
+                BuildPackagesIndexTest.meta("hello", "0.0.1", DebArch.arm64)));
+
+        assertThat(build.apply(metas).keySet(), hasItems("jammy/Release", "jammy/main/binary-amd64/Packages", "jammy/main/binary-arm64/Packages", "jammy/" + CodenameState.FILENAME));
+        assertEquals(Map.of(), build.apply(metas));
+
+        var arm64 = published.get("jammy/main/binary-arm64/Packages");
+        metas.add(BuildPackagesIndexTest.meta("world", "0.0.1", DebArch.amd64));
+        var files = build.apply(metas);
+        assertEquals(Set.of("jammy/Release", "jammy/main/binary-amd64/Packages", "jammy/main/binary-amd64/Packages.gz", "jammy/" + CodenameState.FILENAME), files.keySet());
+        assertThat(new String(files.get("jammy/Release").getContent(), StandardCharsets.UTF_8), containsString(" " + arm64.getSha256() + " "));
+        assertThat(new String(files.get("jammy/main/binary-amd64/Packages").getContent(), StandardCharsets.UTF_8), containsString("Package: world\n"));
+    }
+
+    @Test
+    void test_incrementalReleaseChanged() {
+        var buildRepository = new BuildRepository();
+        var published = new HashMap<String, FileIntegrity>();
+        Function<DebRepoConfig, Map<String, FileIntegrity>> build = config -> {
+            var repoBuilder = buildRepository.repoBuilder(config, Instant.ofEpochMilli(1751437482822L))
+                    .incremental(codename -> Optional.ofNullable(published.get(codename + "/" + CodenameState.FILENAME))
+                            .flatMap(state -> CodenameState.read(state.getContent())));
+            repoBuilder.addIndex("jammy", BuildPackagesIndexTest.meta("hello", "0.0.1", DebArch.amd64));
+            var files = buildRepository.buildRepo(repoBuilder, List.of("jammy"), null, Runnable::run);
+            published.putAll(files);
+            return files;
+        };
+
+        build.apply(new DebRepoConfig());
+        assertEquals(Map.of(), build.apply(new DebRepoConfig()));
+
+        // the packages are the same, the Release file is not
+        var files = build.apply(new DebRepoConfig().setOrigin("example"));
+        assertEquals(Set.of("jammy/Release", "jammy/" + CodenameState.FILENAME), files.keySet());
+        assertThat(new String(files.get("jammy/Release").getContent(), StandardCharsets.UTF_8), containsString("Origin: example\n"));
+        assertEquals(Map.of(), build.apply(new DebRepoConfig().setOrigin("example")));
+    }
+
+    @Test
+    void test_retainVersions() {
+        var buildRepository = new BuildRepository();
+        var repoBuilder = buildRepository.repoBuilder(new DebRepoConfig().setRetainVersions(2), Instant.ofEpochMilli(1751437482822L));
+        for (var version : List.of("1.10", "1.9", "1:0.1", "1.0~rc1", "1.0"))
+            repoBuilder.addIndex("jammy", BuildPackagesIndexTest.meta("hello", version, DebArch.amd64));
+        repoBuilder.addIndex("jammy", BuildPackagesIndexTest.meta("world", "0.0.1", DebArch.amd64));
+        var files = buildRepository.buildRepo(repoBuilder, List.of("jammy"), null, Runnable::run);
+
+        var versions = new ArrayList<String>();
+        try (var reader = Deb822Reader.open(new ByteArrayInputStream(files.get("jammy/main/binary-amd64/Packages").getContent()))) {
+            while (reader.next())
+                versions.add(reader.stanza().get("Package") + " " + reader.stanza().get("Version"));
+        }
+        assertEquals(List.of("hello 1.10", "hello 1:0.1", "world 0.0.1"), versions);
+    }
+
+    @Test
+    void test_retainAtLeastOne() {
+        var sorted = List.of(BuildPackagesIndexTest.meta("hello", "1.0", DebArch.amd64));
+        assertEquals(sorted, BuildRepository.RepoBuilder.CodenameSectionBuilder.retain(sorted, 1));
+        assertThrows(IllegalArgumentException.class, () -> BuildRepository.RepoBuilder.CodenameSectionBuilder.retain(sorted, 0));
+        assertThrows(IllegalArgumentException.class, () -> BuildRepository.RepoBuilder.CodenameSectionBuilder.retain(sorted, -1));
+    }
+
+    @Test
+    void test_archAllOnly() {
+        var buildRepository = new BuildRepository();
+        var repoBuilder = buildRepository.repoBuilder(new DebRepoConfig(), Instant.ofEpochMilli(1751437482822L));
+        repoBuilder.buildCodeName("jammy")
+                .addIndex(BuildPackagesIndexTest.meta("docs", "0.0.1", DebArch.all))
+                .build();
+        var configured = buildRepository.repoBuilder(new DebRepoConfig().setAllOnlyArches(Set.of(DebArch.arm64)), Instant.ofEpochMilli(1751437482822L));
+        configured.buildCodeName("noble")
+                .addIndex(BuildPackagesIndexTest.meta("docs", "0.0.1", DebArch.all))
+                .build();
+
+        var files = buildRepository.buildRepo(repoBuilder.build());
+        for (var arch : List.of("amd64", "arm64", "armhf", "riscv64", "all"))
+            assertThat(new String(files.get("jammy/main/binary-" + arch + "/Packages").getContent(), StandardCharsets.UTF_8),
+                    containsString("Package: docs\nVersion: 0.0.1\nArchitecture: all\n"));
+        assertThat(new String(files.get("jammy/Release").getContent(), StandardCharsets.UTF_8),
+                containsString("Architectures: all amd64 arm64 armhf riscv64\n"));
+
+        var configuredFiles = buildRepository.buildRepo(configured.build());
+        assertEquals(Set.of("noble/main/binary-all/Packages", "noble/main/binary-arm64/Packages"), configuredFiles.keySet().stream()
+                .filter(path -> path.endsWith("/Packages"))
+                .collect(Collectors.toSet()));
+    }
+
     @SneakyThrows
     @Test
     void test_installable() {
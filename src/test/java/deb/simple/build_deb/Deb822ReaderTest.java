@@ -0,0 +1,147 @@
+package deb.simple.build_deb;
+
+import deb.simple.DebArch;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.compress.compressors.xz.XZCompressorOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Slf4j
+class Deb822ReaderTest {
+    static final String PACKAGES = """
+            # a comment
+            Package: hello
+            Version: 0.0.1
+            Description: summary
+             long description
+             .
+             more
+
+            \r
+            package: world\r
+            Version:0.0.2\r
+            """;
+
+    static List<Map<String, String>> readAll(Deb822Reader reader) {
+        var stanzas = new ArrayList<Map<String, String>>();
+        try (reader) {
+            while (reader.next())
+                stanzas.add(reader.stanza().toMap());
+        }
+        return stanzas;
+    }
+
+    @Test
+    void test_stanzas() {
+        var expected = List.of(
+                Map.of("Package", "hello", "Version", "0.0.1", "Description", "summary\n long description\n .\n more"),
+                Map.of("package", "world", "Version", "0.0.2"));
+        // a small buffer makes the reader move and grow it mid stanza
+        for (var bufferSize : List.of(16, 17, 64, Deb822Reader.DEFAULT_BUFFER_SIZE))
+            assertEquals(expected, readAll(new Deb822Reader(new ByteArrayInputStream(PACKAGES.getBytes(StandardCharsets.UTF_8)), bufferSize)), "buffer size " + bufferSize);
+        // no trailing newline
+        assertEquals(List.of(Map.of("Package", "a")), readAll(new Deb822Reader(new ByteArrayInputStream("\n\nPackage: a".getBytes(StandardCharsets.UTF_8)))));
+    }
+
+    @Test
+    void test_fieldAccess() {
+        var reader = new Deb822Reader(new ByteArrayInputStream(PACKAGES.getBytes(StandardCharsets.UTF_8)));
+        assertTrue(reader.next());
+        var stanza = reader.stanza();
+        assertEquals("0.0.1", stanza.get("version"));
+        assertEquals(StandardCharsets.UTF_8.encode("hello"), stanza.value("PACKAGE"));
+        assertTrue(stanza.value("Package").isReadOnly());
+        assertNull(stanza.get("Architecture"));
+        assertEquals(-1, stanza.indexOf("Packag"));
+
+        assertTrue(reader.next());
+        assertEquals("world", reader.stanza().get("Package"));
+        assertFalse(reader.next());
+    }
+
+    @Test
+    void test_invalidLine() {
+        var reader = new Deb822Reader(new ByteArrayInputStream(" continuation\n".getBytes(StandardCharsets.UTF_8)));
+        assertThrows(IllegalStateException.class, reader::next);
+    }
+
+    @Test
+    void test_compressed() throws Exception {
+        var plain = PACKAGES.getBytes(StandardCharsets.UTF_8);
+        var expected = readAll(new Deb822Reader(new ByteArrayInputStream(plain)));
+
+        var gzip = new ByteArrayOutputStream();
+        try (var out = new GZIPOutputStream(gzip)) {
+            out.write(plain);
+        }
+        var xz = new ByteArrayOutputStream();
+        try (var out = new XZCompressorOutputStream(xz)) {
+            out.write(plain);
+        }
+        for (var bytes : List.of(plain, gzip.toByteArray(), xz.toByteArray()))
+            assertEquals(expected, readAll(Deb822Reader.open(new ByteArrayInputStream(bytes))));
+    }
+
+    @Test
+    void test_readsBuiltPackages() {
+        var writer = new PackagesWriter("main/binary-amd64/Packages");
+        var bpi = new BuildPackagesIndex("jammy");
+        var metas = StanzaEncoderTest.metas();
+        metas.forEach(meta -> writer.writeStanza(bpi.metaToStanza(meta)));
+
+        var reader = Deb822Reader.open(new ByteArrayInputStream(writer.getPackagesGz().getContent()));
+        for (var meta : metas) {
+            assertTrue(reader.next());
+            assertEquals(meta.getDebPackageConfig().getMeta().getName(), reader.stanza().get("Package"));
+            assertEquals(bpi.filename(meta), reader.stanza().get("Filename"));
+            assertEquals(meta.getHashes().getSha256(), reader.stanza().get("SHA256"));
+        }
+        assertFalse(reader.next());
+    }
+
+    /**
+     * stanzas per second reading a Packages.gz: the one at PACKAGES_GZ (e.g. an upstream
+     * {@code dists/noble/main/binary-amd64/Packages.gz}), or 60k generated stanzas
+     */
+    @Test
+    @EnabledIfEnvironmentVariable(named = "BENCHMARK", matches = "true")
+    void benchmark_read() throws Exception {
+        byte[] packagesGz;
+        var path = System.getenv("PACKAGES_GZ");
+        if (path != null) {
+            packagesGz = Files.readAllBytes(Path.of(path));
+        } else {
+            var writer = new PackagesWriter("Packages");
+            var encoder = new StanzaEncoder("noble");
+            for (int i = 0; i < 60_000; i++)
+                writer.writeStanza(encoder.encode(BuildPackagesIndexTest.meta("package" + i, "1." + i, i % 2 == 0 ? DebArch.amd64 : DebArch.all)).toByteArray());
+            packagesGz = writer.getPackagesGz().getContent();
+        }
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            int stanzas = 0;
+            long fields = 0;
+            try (var reader = Deb822Reader.open(new ByteArrayInputStream(packagesGz))) {
+                while (reader.next()) {
+                    stanzas++;
+                    fields += reader.stanza().value("Package").remaining();
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            log.info("read {} stanzas ({} bytes of package names) in {}ms, {} stanzas/s",
+                    stanzas, fields, elapsed / 1_000_000, stanzas * 1_000_000_000L / elapsed);
+        }
+    }
+}
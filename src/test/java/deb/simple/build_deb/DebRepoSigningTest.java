@@ -33,7 +33,7 @@ class DebRepoSigningTest {
     @Test
     void test() {
         var packageMeta = new DebPackageMeta()
-                .setSize(10)
+                .setSize(10L)
                 .setHashes(FileIntegrity.of("hello".getBytes(StandardCharsets.UTF_8), null))
                 .setDebPackageConfig(new DebPackageConfig()
                         .setMeta(new DebPackageConfig.PackageMeta()
@@ -45,7 +45,7 @@ class DebRepoSigningTest {
                         .setFiles(new DebPackageConfig.DebFileSpec().setDataFiles(List.of()).setControlFiles(List.of())));
         var packageBytes = new BuildDeb().buildDebToArchive(packageMeta.getDebPackageConfig());
         packageMeta.setHashes(FileIntegrity.of(packageBytes, null));
-        packageMeta.setSize(packageBytes.length);
+        packageMeta.setSize((long) packageBytes.length);
 
         var buildRepository = new BuildRepository();
         var repoBuilder = buildRepository.repoBuilder(new DebRepoConfig(), Instant.ofEpochMilli(1751437482822L));
@@ -0,0 +1,61 @@
+package deb.simple.build_deb;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@Slf4j
+class DebVersionTest {
+
+    static int signum(String a, String b) {
+        return Integer.signum(DebVersion.compare(a, b));
+    }
+
+    @Test
+    void test_compare() {
+        // ascending, as sorted by dpkg --compare-versions
+        var ascending = List.of(
+                "0.9", "1.0~~", "1.0~~a", "1.0~", "1.0~rc1", "1.0", "1.0-0ubuntu1", "1.0-1", "1.0-1ubuntu1", "1.0-1.1",
+                "1.0a", "1.0+dfsg", "1.0.1", "1.00.2", "1.2", "1.10", "1.10a", "2.0", "10.0", "99999999999999999999.0",
+                "1:0.1", "1:1.0", "2:0.0.1");
+        for (int i = 0; i < ascending.size(); i++)
+            for (int j = 0; j < ascending.size(); j++)
+                assertEquals(Integer.signum(Integer.compare(i, j)), signum(ascending.get(i), ascending.get(j)),
+                        ascending.get(i) + " vs " + ascending.get(j));
+    }
+
+    @Test
+    void test_equal() {
+        assertEquals(0, signum("1.0", "0:1.0"));
+        assertEquals(0, signum("1.0", "1.0-0"));
+        assertEquals(0, signum("1.01", "1.1"));
+        assertEquals(0, signum("1.0-1-2", "1.0-1-2"));
+        // the revision is after the last dash
+        assertEquals(-1, signum("1.0-1-2", "1.0-1-10"));
+    }
+
+    /**
+     * sorting 100k version strings
+     */
+    @Test
+    @EnabledIfEnvironmentVariable(named = "BENCHMARK", matches = "true")
+    void benchmark_sort() {
+        var random = new Random(1);
+        var versions = new ArrayList<String>();
+        for (int i = 0; i < 100_000; i++)
+            versions.add((random.nextInt(10) == 0 ? "1:" : "") + random.nextInt(20) + "." + random.nextInt(100) + "." + random.nextInt(1000)
+                    + (random.nextBoolean() ? "~rc" + random.nextInt(5) : "") + "-" + random.nextInt(5) + "ubuntu" + random.nextInt(3));
+        for (int round = 0; round < 10; round++) {
+            var copy = new ArrayList<>(versions);
+            long start = System.nanoTime();
+            copy.sort(DebVersion.COMPARATOR);
+            log.info("sorted {} versions in {}ms", copy.size(), (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package deb.simple.build_deb;
+
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import deb.simple.DebArch;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Optional;
+
+import static deb.simple.build_deb.BuildPackagesIndexTest.meta;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class IndexCacheTest {
+
+    @Test
+    void test_eTagAndEviction(@TempDir Path dir) {
+        var mapper = JsonMapper.builder().findAndAddModules().build();
+        var file = dir.resolve("cache/index-cache.json");
+        var hello = meta("hello", "0.0.1", DebArch.amd64);
+
+        var cache = IndexCache.load(file, mapper);
+        cache.put("s3://bucket/pool/jammy/hello", "\"etag1\"", hello);
+        cache.put("s3://bucket/pool/jammy/world", "\"etag1\"", meta("world", "0.0.1", DebArch.amd64));
+        cache.put("s3://bucket/pool/noble/hello", "\"etag1\"", hello);
+        cache.save();
+
+        var loaded = IndexCache.load(file, mapper);
+        assertEquals(3, loaded.size());
+        // content of the hashes is not stored
+        assertEquals(Optional.of(hello.getHashes().getSha256()),
+                loaded.get("s3://bucket/pool/jammy/hello", "\"etag1\"").map(meta -> meta.getHashes().getSha256()));
+        assertEquals(Optional.empty(), loaded.get("s3://bucket/pool/noble/hello", "\"etag2\""));
+
+        // world was not listed again
+        loaded.evictUnused("s3://bucket/pool/");
+        loaded.save();
+        assertEquals(2, IndexCache.load(file, mapper).size());
+    }
+}
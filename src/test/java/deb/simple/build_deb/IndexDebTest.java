@@ -0,0 +1,144 @@
+package deb.simple.build_deb;
+
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import lombok.SneakyThrows;
+import org.apache.commons.compress.archivers.ar.ArArchiveEntry;
+import org.apache.commons.compress.archivers.ar.ArArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class IndexDebTest {
+
+    @Test
+    void test_sameAsBuiltIndex() {
+        var config = BuildIndexTest.config("vendor", 4, 100_000);
+        config.getControl()
+                .setDepends("libc6 (>= 2.34)")
+                .setHomepage("https://example.com")
+                .setDescription("summary\n long description");
+        var deb = new BuildDeb().buildDebToArchive(config);
+
+        var meta = new IndexDeb().index(new ByteArrayInputStream(deb), "vendor.deb");
+        var built = new BuildIndex().buildDebIndexToDto(deb, config);
+
+        assertEquals(built.getHashes().getSha256(), meta.getHashes().getSha256());
+        assertEquals(built.getHashes().getMd5(), meta.getHashes().getMd5());
+        assertEquals(deb.length, (long) meta.getSize());
+        assertEquals(DebPackageMeta.SLIM_SCHEMA_VERSION, meta.getSchemaVersion());
+        var packagesIndex = new BuildPackagesIndex("jammy");
+        assertEquals(packagesIndex.metaToIndex(built), packagesIndex.metaToIndex(meta));
+    }
+
+    @Test
+    void test_component() {
+        var deb = new BuildDeb().buildDebToArchive(BuildIndexTest.config("vendor", 1, 10));
+        var meta = new IndexDeb().setComponent("contrib").index(new ByteArrayInputStream(deb), "vendor.deb");
+        assertEquals("contrib", meta.getDebPackageConfig().getControl().getSection());
+    }
+
+    @Test
+    void test_notADeb() {
+        var indexDeb = new IndexDeb();
+        assertThrows(Exception.class, () -> indexDeb.index(new ByteArrayInputStream("!<arch>\n".getBytes(StandardCharsets.US_ASCII)), "empty.deb"));
+    }
+
+    static final String VENDOR_CONTROL = """
+            Package: vendor
+            Source: vendor-src
+            Version: 1.0-1
+            Architecture: %s
+            Multi-Arch: same
+            Maintainer: vendor <vendor@example.com>
+            Pre-Depends: dpkg (>= 1.19)
+            Depends: libc6
+            Suggests: vendor-doc
+            Breaks: old-vendor (<< 1.0)
+            Replaces: old-vendor (<< 1.0)
+            Provides: vendor-api
+            Essential: no
+            Description: vendor package
+            """;
+
+    /**
+     * a .deb as dpkg-deb builds it by default, with zstd compressed members
+     */
+    @SneakyThrows
+    static byte[] zstdDeb(String control) {
+        var out = new ByteArrayOutputStream();
+        try (var ar = new ArArchiveOutputStream(out)) {
+            member(ar, "debian-binary", "2.0\n".getBytes(StandardCharsets.US_ASCII));
+            member(ar, "control.tar.zst", zstdTar("./control", control.getBytes(StandardCharsets.UTF_8)));
+            member(ar, "data.tar.zst", zstdTar("./usr/share/doc/vendor/README", "readme".getBytes(StandardCharsets.UTF_8)));
+        }
+        return out.toByteArray();
+    }
+
+    static void member(ArArchiveOutputStream ar, String name, byte[] content) throws Exception {
+        ar.putArchiveEntry(new ArArchiveEntry(name, content.length));
+        ar.write(content);
+        ar.closeArchiveEntry();
+    }
+
+    static byte[] zstdTar(String name, byte[] content) throws Exception {
+        var out = new ByteArrayOutputStream();
+        try (var tar = new TarArchiveOutputStream(new ZstdCompressorOutputStream(out))) {
+            var entry = new TarArchiveEntry(name);
+            entry.setSize(content.length);
+            tar.putArchiveEntry(entry);
+            tar.write(content);
+            tar.closeArchiveEntry();
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    void test_zstdWithExtraFields() {
+        var meta = new IndexDeb().index(new ByteArrayInputStream(zstdDeb(VENDOR_CONTROL.formatted("amd64"))), "vendor.deb");
+
+        var control = meta.getDebPackageConfig().getControl();
+        assertEquals("dpkg (>= 1.19)", control.getPreDepends());
+        assertEquals("vendor-api", control.getProvides());
+        assertEquals("vendor-src", control.getSource());
+        var packagesIndex = new BuildPackagesIndex("jammy");
+        var stanza = packagesIndex.metaToIndex(meta);
+        assertThat(stanza, containsString("""
+                Package: vendor
+                Source: vendor-src
+                Version: 1.0-1
+                Architecture: amd64
+                Multi-Arch: same
+                Essential: no
+                Maintainer: vendor <vendor@example.com>
+                Pre-Depends: dpkg (>= 1.19)
+                Depends: libc6
+                Suggests: vendor-doc
+                Breaks: old-vendor (<< 1.0)
+                Replaces: old-vendor (<< 1.0)
+                Provides: vendor-api
+                Filename: """));
+        assertEquals(stanza, new String(packagesIndex.metaToStanza(meta), StandardCharsets.UTF_8));
+
+        // kept in the index file
+        var read = new DebPackageMetaReader(JsonMapper.builder().findAndAddModules().build()).read(new BuildIndex().buildDebIndexToBytes(meta));
+        assertEquals(control, read.getDebPackageConfig().getControl());
+    }
+
+    @Test
+    void test_unsupportedArchitecture() {
+        var indexDeb = new IndexDeb();
+        var deb = zstdDeb(VENDOR_CONTROL.formatted("i386"));
+        var thrown = assertThrows(IndexDeb.UnsupportedArchitectureException.class, () -> indexDeb.index(new ByteArrayInputStream(deb), "vendor.deb"));
+        assertEquals("i386", thrown.getArchitecture());
+    }
+}
@@ -0,0 +1,56 @@
+package deb.simple.build_deb;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class IoExecutorTest {
+
+    static S3Exception slowDown() {
+        return (S3Exception) S3Exception.builder()
+                .statusCode(503)
+                .awsErrorDetails(AwsErrorDetails.builder().errorCode("SlowDown").build())
+                .build();
+    }
+
+    @Test
+    void test_throttledCallLowersLimit() {
+        try (var ioExecutor = new IoExecutor(8)) {
+            var attempts = new AtomicInteger();
+            assertThrows(S3Exception.class, () -> ioExecutor.call("GetObject", () -> {
+                attempts.incrementAndGet();
+                throw slowDown();
+            }));
+
+            // the client already retried, there is no second retry layer
+            assertEquals(1, attempts.get());
+            assertEquals(4, ioExecutor.currentLimit());
+            assertThat(ioExecutor.report(), containsString("GetObject: n=1"));
+            assertThat(ioExecutor.report(), containsString("throttled 1"));
+
+            for (int i = 0; i < 4; i++)
+                ioExecutor.call("GetObject", () -> "done");
+            assertEquals(5, ioExecutor.currentLimit());
+        }
+    }
+
+    @Test
+    void test_otherFailuresAreNotRetried() {
+        try (var ioExecutor = new IoExecutor(8)) {
+            var attempts = new AtomicInteger();
+            assertThrows(IllegalStateException.class, () -> ioExecutor.call("GetObject", () -> {
+                attempts.incrementAndGet();
+                throw new IllegalStateException();
+            }));
+            assertEquals(1, attempts.get());
+            assertEquals(8, ioExecutor.currentLimit());
+        }
+    }
+}
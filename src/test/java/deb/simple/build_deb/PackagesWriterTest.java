@@ -0,0 +1,46 @@
+package deb.simple.build_deb;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PackagesWriterTest {
+
+    @Test
+    void test_inMemoryAndSpilled() throws Exception {
+        for (int threshold : new int[]{PackagesWriter.DEFAULT_SPILL_THRESHOLD, 16}) {
+            FileIntegrity packages;
+            FileIntegrity packagesGz;
+            try (var writer = new PackagesWriter("main/binary-amd64/Packages", threshold)) {
+                writer.writeStanza("Package: hello\n").writeStanza("Package: world\n");
+                packages = writer.getPackages();
+                packagesGz = writer.getPackagesGz();
+            }
+
+            var expected = "Package: hello\n\nPackage: world\n";
+            assertEquals(FileIntegrity.of(expected, "main/binary-amd64/Packages").setContent(null), copyWithoutContent(packages));
+            assertEquals(expected, new String(packages.getContent(), StandardCharsets.UTF_8));
+            assertEquals(threshold == 16, packages.getContentFile() != null);
+
+            assertEquals("main/binary-amd64/Packages.gz", packagesGz.getPath());
+            assertEquals(FileIntegrity.of(packagesGz.getContent(), null).getSha256(), packagesGz.getSha256());
+            try (var gunzip = new GZIPInputStream(new ByteArrayInputStream(packagesGz.getContent()))) {
+                assertEquals(expected, new String(gunzip.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    static FileIntegrity copyWithoutContent(FileIntegrity integrity) {
+        return new FileIntegrity()
+                .setPath(integrity.getPath())
+                .setSize(integrity.getSize())
+                .setMd5(integrity.getMd5())
+                .setSha1(integrity.getSha1())
+                .setSha256(integrity.getSha256())
+                .setSha512(integrity.getSha512());
+    }
+}
@@ -0,0 +1,145 @@
+package deb.simple.build_deb;
+
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import deb.simple.DebArch;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PoolGcTest {
+
+    static void write(Path pool, String codename, String name, String version) throws Exception {
+        var buildIndex = new BuildIndex();
+        var config = BuildIndexTest.config(name, 1, 10);
+        config.getMeta().setVersion(version);
+        var deb = (name + version).getBytes(StandardCharsets.UTF_8);
+        var dir = pool.resolve(codename);
+        Files.createDirectories(dir);
+        Files.write(dir.resolve(config.getMeta().getDebFilename()), deb);
+        Files.write(dir.resolve(buildIndex.indexFilename(config)), buildIndex.buildDebIndexToBytes(deb, config));
+    }
+
+    static void age(Path pool) throws Exception {
+        var old = FileTime.from(Instant.now().minus(Duration.ofDays(2)));
+        try (var files = Files.walk(pool)) {
+            for (var file : files.filter(Files::isRegularFile).toList())
+                Files.setLastModifiedTime(file, old);
+        }
+    }
+
+    static Set<String> keys(PoolGc.Report report) {
+        return report.deleted().stream().map(PoolGc.PoolObject::key).collect(Collectors.toSet());
+    }
+
+    static PoolGc.FilePool filePool(Path pool) {
+        var objectMapper = JsonMapper.builder().findAndAddModules().build();
+        return new PoolGc.FilePool(pool, objectMapper, new IoExecutor(4));
+    }
+
+    PoolGc poolGc(Path pool) {
+        var filePool = filePool(pool);
+        return new PoolGc(filePool, filePool.ioExecutor);
+    }
+
+    @Test
+    void test_retainAndOrphans(@TempDir Path pool) throws Exception {
+        for (var version : List.of("1.0", "1.10", "1.9"))
+            write(pool, "jammy", "hello", version);
+        write(pool, "jammy", "world", "0.1");
+        write(pool, "noble", "hello", "1.0");
+        Files.writeString(pool.resolve("jammy/orphan_0.1_amd64.deb"), "orphan");
+        Files.writeString(pool.resolve("jammy/notes.txt"), "not a package");
+        age(pool);
+
+        var report = poolGc(pool).collect(2, Duration.ofHours(24), false);
+
+        assertEquals(Set.of(
+                "jammy/hello_1.0_amd64.deb",
+                "jammy/hello_1.0_amd64" + DebPackageConfig.PackageMeta.SD_INDEX_EXTENSION,
+                "jammy/orphan_0.1_amd64.deb"), keys(report));
+        assertEquals(List.of(), report.failed());
+        assertEquals(5, report.indexes());
+        assertEquals(4, report.retainedIndexes());
+        assertTrue(Files.exists(pool.resolve("jammy/hello_1.9_amd64.deb")));
+        assertTrue(Files.exists(pool.resolve("jammy/hello_1.10_amd64.deb")));
+        assertTrue(Files.exists(pool.resolve("noble/hello_1.0_amd64.deb")));
+        assertTrue(Files.exists(pool.resolve("jammy/notes.txt")));
+        assertEquals(false, Files.exists(pool.resolve("jammy/orphan_0.1_amd64.deb")));
+    }
+
+    @Test
+    void test_withoutRetainOnlyOrphans(@TempDir Path pool) throws Exception {
+        write(pool, "jammy", "hello", "1.0");
+        write(pool, "jammy", "hello", "2.0");
+        Files.writeString(pool.resolve("jammy/orphan_0.1_amd64.deb"), "orphan");
+        age(pool);
+
+        var report = poolGc(pool).collect(null, Duration.ofHours(24), false);
+
+        assertEquals(Set.of("jammy/orphan_0.1_amd64.deb"), keys(report));
+    }
+
+    @Test
+    void test_graceAndDryRun(@TempDir Path pool) throws Exception {
+        write(pool, "jammy", "hello", "1.0");
+        Files.writeString(pool.resolve("jammy/old_0.1_amd64.deb"), "old");
+        age(pool);
+        // just uploaded, its index may not be written yet
+        Files.writeString(pool.resolve("jammy/new_0.1_amd64.deb"), "new");
+
+        var dryRun = poolGc(pool).collect(null, Duration.ofHours(24), true);
+        assertEquals(Set.of("jammy/old_0.1_amd64.deb"), keys(dryRun));
+        assertEquals(3, dryRun.bytes());
+        assertTrue(Files.exists(pool.resolve("jammy/old_0.1_amd64.deb")));
+
+        poolGc(pool).collect(null, Duration.ofHours(24), false);
+        assertEquals(false, Files.exists(pool.resolve("jammy/old_0.1_amd64.deb")));
+        assertTrue(Files.exists(pool.resolve("jammy/new_0.1_amd64.deb")));
+    }
+
+    @Test
+    void test_sharedPoolDebKey() {
+        var config = BuildIndexTest.config("hello", 1, 10);
+        var meta = new DebPackageMeta().setDebPackageConfig(config);
+        assertEquals(Optional.of("jammy/hello_0.0.1_amd64.deb"), PoolGc.debKey("pool/", "jammy", meta));
+        meta.setFilename("pool/main/h/hello/hello_0.0.1_amd64.deb");
+        assertEquals(Optional.of("main/h/hello/hello_0.0.1_amd64.deb"), PoolGc.debKey("pool/", "jammy", meta));
+        assertEquals(Optional.of("pool/main/h/hello/hello_0.0.1_amd64.deb"), PoolGc.debKey("", "jammy", meta));
+        assertEquals(Optional.empty(), PoolGc.debKey("mirror", "jammy", meta));
+    }
+
+    @Test
+    void test_poolPrefix(@TempDir Path pool) throws Exception {
+        // indexed by index --pool-prefix mirror/
+        var buildIndex = new BuildIndex();
+        var hello = BuildPackagesIndexTest.meta("hello", "0.0.1", DebArch.amd64);
+        var debFilename = hello.getDebPackageConfig().getMeta().getDebFilename();
+        hello.setFilename("mirror/jammy/vendor/" + debFilename);
+        var dir = Files.createDirectories(pool.resolve("jammy/vendor"));
+        Files.write(dir.resolve(debFilename), "hello".getBytes(StandardCharsets.UTF_8));
+        Files.write(dir.resolve(buildIndex.indexFilename(hello.getDebPackageConfig())), buildIndex.buildDebIndexToBytes(hello));
+        Files.write(dir.resolve("orphan_0.1_amd64.deb"), "orphan".getBytes(StandardCharsets.UTF_8));
+        age(pool);
+        var filePool = filePool(pool);
+
+        // the Filename is not below the default pool prefix, its .deb is unknown
+        assertEquals(Set.of(), keys(new PoolGc(filePool, filePool.ioExecutor).collect(null, Duration.ofHours(24), false)));
+        assertTrue(Files.exists(dir.resolve(debFilename)));
+
+        assertEquals(Set.of("jammy/vendor/orphan_0.1_amd64.deb"), keys(new PoolGc(filePool, filePool.ioExecutor, "mirror/").collect(null, Duration.ofHours(24), false)));
+        assertTrue(Files.exists(dir.resolve(debFilename)));
+    }
+}
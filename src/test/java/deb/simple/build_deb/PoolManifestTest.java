@@ -0,0 +1,131 @@
+package deb.simple.build_deb;
+
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import deb.simple.DebArch;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static deb.simple.build_deb.BuildPackagesIndexTest.meta;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PoolManifestTest {
+    static final String CODENAME_PREFIX = "dist/pool/jammy/";
+
+    final StubS3Client s3Client = new StubS3Client();
+    final IoExecutor ioExecutor = new IoExecutor(4);
+    final JsonMapper objectMapper = JsonMapper.builder().findAndAddModules().build();
+    final PoolManifest manifest = new PoolManifest(s3Client, ioExecutor, objectMapper, "bucket", CODENAME_PREFIX);
+
+    @AfterEach
+    void closeIoExecutor() {
+        ioExecutor.close();
+    }
+
+    /**
+     * uploads the index file, as a build does before appending it
+     */
+    String upload(DebPackageMeta meta) {
+        var key = CODENAME_PREFIX + IndexFormat.json.indexFilename(meta.getDebPackageConfig().getMeta());
+        s3Client.put(key, new BuildIndex().buildDebIndexToBytes(meta));
+        return key;
+    }
+
+    @Test
+    void test_firstAppendSeedsFromPool() {
+        var hello = upload(meta("hello", "0.0.1", DebArch.amd64));
+        var world = upload(meta("world", "0.0.1", DebArch.amd64));
+        s3Client.put(CODENAME_PREFIX + "hello_0.0.1_amd64.deb", "hello".getBytes(StandardCharsets.UTF_8));
+
+        var added = meta("added", "0.0.1", DebArch.amd64);
+        manifest.append(Map.of(upload(added), added));
+
+        assertEquals(Set.of(hello, world, CODENAME_PREFIX + "added_0.0.1_amd64" + DebPackageConfig.PackageMeta.SD_INDEX_EXTENSION),
+                manifest.read().orElseThrow().keySet());
+        // seeded once
+        manifest.append(Map.of());
+        assertEquals(1, manifest.list().snapshots().size());
+    }
+
+    @Test
+    void test_appendAfterRebuildOfEmptyManifest() throws Exception {
+        var hello = upload(meta("hello", "0.0.1", DebArch.amd64));
+        // a build picked the first sequence of the empty manifest, then a rebuild ran before it wrote its segment
+        var slow = manifest.list().lastSequence() + 1;
+        manifest.rebuild(manifest::readIndexes);
+
+        var added = meta("added", "0.0.1", DebArch.amd64);
+        var key = upload(added);
+        var sequence = manifest.putSegment(slow, objectMapper.writeValueAsBytes(Map.of(key, added)));
+
+        assertEquals(manifest.list().lastSnapshot() + 1, sequence);
+        assertEquals(Set.of(hello, key), manifest.read().orElseThrow().keySet());
+    }
+
+    @Test
+    void test_noManifestWithoutIndexFiles() {
+        // e.g. a directory of the shared pool
+        s3Client.put(CODENAME_PREFIX + "h/hello/hello_0.0.1_amd64.deb", "hello".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(Map.of(), manifest.rebuild(manifest::readIndexes));
+        assertEquals(-1, manifest.append(Map.of()));
+        assertTrue(manifest.list().isEmpty());
+
+        // the index files of a manifest were deleted
+        var hello = meta("hello", "0.0.1", DebArch.amd64);
+        var key = upload(hello);
+        manifest.append(Map.of(key, hello));
+        s3Client.objects.remove(key);
+        assertEquals(Map.of(), manifest.rebuild(manifest::readIndexes));
+        assertTrue(manifest.list().isEmpty());
+    }
+
+    @Test
+    void test_appendAfterCompaction() throws Exception {
+        var hello = meta("hello", "0.0.1", DebArch.amd64);
+        manifest.append(Map.of(upload(hello), hello));
+        // a build listed the manifest, then a compaction ran before it wrote its segment
+        var slow = manifest.list().lastSequence() + 1;
+        manifest.compact();
+
+        var world = meta("world", "0.0.1", DebArch.amd64);
+        var key = upload(world);
+        var sequence = manifest.putSegment(slow, objectMapper.writeValueAsBytes(Map.of(key, world)));
+
+        assertEquals(slow, manifest.list().lastSnapshot());
+        assertEquals(slow + 1, sequence);
+        assertEquals(Set.of(CODENAME_PREFIX + "hello_0.0.1_amd64" + DebPackageConfig.PackageMeta.SD_INDEX_EXTENSION, key),
+                manifest.read().orElseThrow().keySet());
+    }
+
+    @Test
+    void test_apply() {
+        var hello = meta("hello", "0.0.1", DebArch.amd64);
+        var world = meta("world", "0.0.1", DebArch.amd64);
+        var state = new TreeMap<String, DebPackageMeta>();
+
+        PoolManifest.apply(state, Map.of("pool/jammy/hello", hello, "pool/jammy/world", world));
+        var removal = new HashMap<String, DebPackageMeta>();
+        removal.put("pool/jammy/hello", null);
+        PoolManifest.apply(state, removal);
+
+        assertEquals(Map.of("pool/jammy/world", world), state);
+    }
+
+    @Test
+    void test_keysSortBySequence() {
+        var manifest = new PoolManifest(null, null, null, "bucket", "dist/pool/jammy/");
+        var keys = List.of(manifest.key(PoolManifest.SEGMENT, 9), manifest.key(PoolManifest.SEGMENT, 10));
+
+        assertEquals(keys, keys.stream().sorted().toList());
+        assertEquals("dist/pool/jammy/.simple-deb-4j-manifest/segment-0000000000000000010.json", keys.getLast());
+        assertEquals(10, PoolManifest.sequence(keys.getLast().substring(manifest.prefix.length()), PoolManifest.SEGMENT));
+    }
+}
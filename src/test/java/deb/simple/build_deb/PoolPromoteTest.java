@@ -0,0 +1,128 @@
+package deb.simple.build_deb;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PoolPromoteTest {
+
+    static PoolPromote poolPromote(Path pool) {
+        var filePool = PoolGcTest.filePool(pool);
+        return new PoolPromote(filePool, filePool.ioExecutor);
+    }
+
+    @Test
+    void test_promoteSelected(@TempDir Path pool) throws Exception {
+        PoolGcTest.write(pool, "staging", "hello", "1.0");
+        PoolGcTest.write(pool, "staging", "hello", "2.0");
+        PoolGcTest.write(pool, "staging", "world", "1.0");
+        // already promoted
+        PoolGcTest.write(pool, "prod", "hello", "1.0");
+
+        var report = poolPromote(pool).promote("staging", "prod", PoolPromote.selection(List.of("hello")));
+
+        assertEquals(Set.of("prod/hello_1.0_amd64" + DebPackageConfig.PackageMeta.SD_INDEX_EXTENSION,
+                "prod/hello_2.0_amd64" + DebPackageConfig.PackageMeta.SD_INDEX_EXTENSION), report.promoted().keySet());
+        assertEquals(1, report.debsCopied());
+        assertEquals(Files.readString(pool.resolve("staging/hello_2.0_amd64.deb")), Files.readString(pool.resolve("prod/hello_2.0_amd64.deb")));
+        assertTrue(Files.exists(pool.resolve("prod/hello_2.0_amd64" + DebPackageConfig.PackageMeta.SD_INDEX_EXTENSION)));
+        assertFalse(Files.exists(pool.resolve("prod/world_1.0_amd64.deb")));
+    }
+
+    @Test
+    void test_sameSizeDifferentContent(@TempDir Path pool) throws Exception {
+        PoolGcTest.write(pool, "staging", "hello", "1.0");
+        // a different build of the same version was promoted before
+        PoolGcTest.write(pool, "prod", "hello", "1.0");
+        var buildIndex = new BuildIndex();
+        var config = BuildIndexTest.config("hello", 1, 10);
+        config.getMeta().setVersion("1.0");
+        var rebuilt = "HELLO1.0".getBytes(StandardCharsets.UTF_8);
+        Files.write(pool.resolve("prod/hello_1.0_amd64.deb"), rebuilt);
+        Files.write(pool.resolve("prod").resolve(buildIndex.indexFilename(config)), buildIndex.buildDebIndexToBytes(rebuilt, config));
+
+        var report = poolPromote(pool).promote("staging", "prod", PoolPromote.selection(null));
+
+        assertEquals(1, report.debsCopied());
+        assertEquals("hello1.0", Files.readString(pool.resolve("prod/hello_1.0_amd64.deb")));
+    }
+
+    @Test
+    void test_sharedPoolCopiesIndexOnly(@TempDir Path pool) throws Exception {
+        var buildIndex = new BuildIndex();
+        var config = BuildIndexTest.config("hello", 1, 10);
+        var meta = buildIndex.buildDebIndexToDto(new byte[]{1, 2, 3}, config).setFilename("pool/main/h/hello/hello_0.0.1_amd64.deb");
+        var index = pool.resolve("staging").resolve(buildIndex.indexFilename(config));
+        Files.createDirectories(index.getParent());
+        Files.write(index, buildIndex.buildDebIndexToBytes(meta));
+
+        var report = poolPromote(pool).promote("staging", "prod", PoolPromote.selection(List.of()));
+
+        assertEquals(0, report.debsCopied());
+        assertEquals(Set.of("prod/" + buildIndex.indexFilename(config)), report.promoted().keySet());
+        try (var files = Files.list(pool.resolve("prod"))) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    void test_indexedDebIsCopied(@TempDir Path pool) throws Exception {
+        // a vendor package, as the index command lists it
+        var deb = pool.resolve("staging/vendor/vendor_0.0.1_amd64.deb");
+        Files.createDirectories(deb.getParent());
+        Files.write(deb, new BuildDeb().buildDebToArchive(BuildIndexTest.config("vendor", 1, 10)));
+        var meta = new IndexDeb().index(deb);
+        meta.setFilename("pool/staging/vendor/vendor_0.0.1_amd64.deb");
+        var buildIndex = new BuildIndex();
+        var indexFilename = buildIndex.indexFilename(meta.getDebPackageConfig());
+        Files.write(deb.resolveSibling(indexFilename), buildIndex.buildDebIndexToBytes(meta));
+
+        var filePool = PoolGcTest.filePool(pool);
+        var report = new PoolPromote(filePool, filePool.ioExecutor).promote("staging", "prod", PoolPromote.selection(null));
+
+        assertEquals(1, report.debsCopied());
+        assertEquals(Set.of("prod/vendor/" + indexFilename), report.promoted().keySet());
+        assertArrayEquals(Files.readAllBytes(deb), Files.readAllBytes(pool.resolve("prod/vendor/vendor_0.0.1_amd64.deb")));
+        var promoted = filePool.readIndex(new PoolGc.PoolObject("prod/vendor/" + indexFilename, 0, Instant.now()));
+        assertEquals("pool/prod/vendor/vendor_0.0.1_amd64.deb", promoted.getFilename());
+        assertEquals(meta.getHashes().getSha256(), promoted.getHashes().getSha256());
+        assertEquals("pool/prod/vendor/vendor_0.0.1_amd64.deb", report.promoted().get("prod/vendor/" + indexFilename).getFilename());
+    }
+
+    @Test
+    void test_missingDeb(@TempDir Path pool) throws Exception {
+        PoolGcTest.write(pool, "staging", "hello", "1.0");
+        Files.delete(pool.resolve("staging/hello_1.0_amd64.deb"));
+        var poolPromote = poolPromote(pool);
+        assertThrows(IllegalStateException.class, () -> poolPromote.promote("staging", "prod", PoolPromote.selection(null)));
+    }
+
+    @Test
+    void test_selection() {
+        var config = BuildIndexTest.config("libhello", 1, 10);
+        config.getMeta().setVersion("1.2.3-1");
+        var meta = new DebPackageMeta().setDebPackageConfig(config);
+
+        assertTrue(PoolPromote.selection(null).test(meta));
+        assertTrue(PoolPromote.selection(List.of("libhello")).test(meta));
+        assertTrue(PoolPromote.selection(List.of("lib*")).test(meta));
+        assertTrue(PoolPromote.selection(List.of("lib*=1.2.*")).test(meta));
+        assertTrue(PoolPromote.selection(List.of("other", "libhell?")).test(meta));
+        assertFalse(PoolPromote.selection(List.of("lib*=1.3.*")).test(meta));
+        assertFalse(PoolPromote.selection(List.of("hello")).test(meta));
+        // dots are literal
+        assertFalse(PoolPromote.selection(List.of("libhello=1x2x3-1")).test(meta));
+    }
+}
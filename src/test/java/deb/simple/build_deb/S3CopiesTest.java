@@ -0,0 +1,58 @@
+package deb.simple.build_deb;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartCopyRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartCopyResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class S3CopiesTest {
+
+    @Test
+    void test_copy() {
+        var s3Client = new StubS3Client();
+        s3Client.put("pool/jammy/hello.deb", "hello".getBytes(StandardCharsets.UTF_8));
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            new S3Copies(s3Client, executor, 2).copyAll(List.of(
+                    new S3Copies.Copy("bucket", "pool/jammy/hello.deb", "pool/noble/hello.deb", 5),
+                    new S3Copies.Copy("bucket", "pool/jammy/hello.deb", "pool/focal/hello.deb", -1)));
+        }
+        assertArrayEquals(s3Client.content("pool/jammy/hello.deb"), s3Client.content("pool/noble/hello.deb"));
+        assertArrayEquals(s3Client.content("pool/jammy/hello.deb"), s3Client.content("pool/focal/hello.deb"));
+        assertEquals(1, s3Client.count("HeadObject"));
+    }
+
+    @Test
+    void test_failedAbortKeepsCopyFailure() {
+        var copyFailure = new IllegalStateException("part copy failed");
+        var abortFailure = new IllegalStateException("abort failed");
+        var s3Client = new StubS3Client() {
+            @Override
+            public UploadPartCopyResponse uploadPartCopy(UploadPartCopyRequest request) {
+                throw copyFailure;
+            }
+
+            @Override
+            public AbortMultipartUploadResponse abortMultipartUpload(AbortMultipartUploadRequest request) {
+                throw abortFailure;
+            }
+        };
+        var copy = new S3Copies.Copy("bucket", "pool/jammy/large.deb", "pool/noble/large.deb", S3Copies.MAX_SINGLE_COPY_SIZE + 1);
+
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            var copies = new S3Copies(s3Client, executor, 2);
+            var thrown = assertThrows(IllegalStateException.class, () -> copies.copy(copy));
+            assertSame(copyFailure, thrown);
+            assertSame(abortFailure, thrown.getSuppressed()[0]);
+        }
+    }
+}
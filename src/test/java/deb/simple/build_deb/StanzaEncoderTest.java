@@ -0,0 +1,84 @@
+package deb.simple.build_deb;
+
+import deb.simple.DebArch;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.ToIntFunction;
+import java.util.stream.IntStream;
+
+import static deb.simple.build_deb.BuildPackagesIndexTest.meta;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@Slf4j
+class StanzaEncoderTest {
+
+    static List<DebPackageMeta> metas() {
+        var plain = meta("hello", "0.0.1", DebArch.amd64);
+        var full = meta("libfull", "1:2.3-4ubuntu1", DebArch.all).setFilename("pool/main/libf/libfull/libfull_2.3-4ubuntu1_all.deb");
+        full.getDebPackageConfig().getControl()
+                .setDepends("libc6 (>= 2.34), hello")
+                .setConflicts("other")
+                .setRecommends(" ")
+                .setInstalledSize(1234567)
+                .setHomepage("https://example.com")
+                .setSection("contrib")
+                .setMaintainer("Jürgen Müller <jm@example.com>")
+                .setDescription("déjà vu – 漢字 😀");
+        var nullSize = meta("nosize", "0.0.1", DebArch.arm64).setSize(null);
+        return List.of(plain, full, nullSize);
+    }
+
+    @Test
+    void test_sameAsMetaToIndex() {
+        var bpi = new BuildPackagesIndex("/jammy/");
+        for (var meta : metas())
+            assertEquals(bpi.metaToIndex(meta), new String(bpi.metaToStanza(meta), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void test_bufferIsReused() {
+        var encoder = new StanzaEncoder("jammy");
+        var metas = metas();
+        var first = encoder.encode(metas.get(1)).toByteArray();
+        encoder.encode(metas.get(0));
+        assertEquals(new String(first, StandardCharsets.UTF_8), new String(new StanzaEncoder("jammy").encode(metas.get(1)).toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(new BuildPackagesIndex("jammy").metaToIndex(metas.get(0)).length(), encoder.length());
+    }
+
+    /**
+     * throughput and allocation per stanza of {@link StanzaEncoder} against {@link BuildPackagesIndex#metaToIndex}
+     * encoded to UTF-8 (the build has no jmh, so this is a plain test with warm up rounds)
+     */
+    @Test
+    @EnabledIfEnvironmentVariable(named = "BENCHMARK", matches = "true")
+    void benchmark_encode() {
+        var metas = IntStream.range(0, 10_000)
+                .mapToObj(i -> metas().get(i % 3).setFilename(i % 3 == 1 ? "pool/main/p/package" + i + ".deb" : null))
+                .toList();
+        var bpi = new BuildPackagesIndex("jammy");
+        var encoder = new StanzaEncoder("jammy");
+        for (int round = 0; round < 10; round++) {
+            measure("metaToIndex", metas, meta -> bpi.metaToIndex(meta).getBytes(StandardCharsets.UTF_8).length);
+            measure("StanzaEncoder", metas, meta -> encoder.encode(meta).length());
+        }
+    }
+
+    static void measure(String name, List<DebPackageMeta> metas, ToIntFunction<DebPackageMeta> encode) {
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        long bytes = 0;
+        for (var meta : metas)
+            bytes += encode.applyAsInt(meta);
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        log.info("{}: {} MB/s, {} bytes allocated per stanza",
+                name, bytes * 1000 / Math.max(1, elapsed), allocated / metas.size());
+    }
+}
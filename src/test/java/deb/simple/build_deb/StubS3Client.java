@@ -0,0 +1,173 @@
+package deb.simple.build_deb;
+
+import lombok.SneakyThrows;
+import org.apache.commons.codec.digest.DigestUtils;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.ByteArrayInputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * an in memory s3 bucket for tests, with the calls this project makes: listing (paged, with delimiters), get, head
+ * (with the sha256 checksum the object was put with), put (with {@code If-None-Match: *}), copy and delete
+ * <p>
+ * every call is recorded in {@link #calls}, override a method to make it fail
+ */
+class StubS3Client implements S3Client {
+    record StoredObject(byte[] content, String checksumSha256, Instant lastModified) {
+        String eTag() {
+            return "\"" + DigestUtils.md5Hex(content) + "\"";
+        }
+    }
+
+    final Map<String, StoredObject> objects = new ConcurrentSkipListMap<>();
+    final Queue<String> calls = new ConcurrentLinkedQueue<>();
+    int pageSize = 1000;
+
+    void put(String key, byte[] content) {
+        objects.put(key, new StoredObject(content, null, Instant.now()));
+    }
+
+    byte[] content(String key) {
+        var object = objects.get(key);
+        return object == null ? null : object.content();
+    }
+
+    long count(String call) {
+        return calls.stream().filter(call::equals).count();
+    }
+
+    StoredObject stored(String bucket, String key) {
+        var object = objects.get(key);
+        if (object == null)
+            throw (NoSuchKeyException) NoSuchKeyException.builder().statusCode(404).message("no " + bucket + "/" + key).build();
+        return object;
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public ListObjectsV2Response listObjectsV2(ListObjectsV2Request request) {
+        calls.add("ListObjectsV2");
+        var prefix = request.prefix() == null ? "" : request.prefix();
+        var contents = new ArrayList<S3Object>();
+        var commonPrefixes = new TreeSet<String>();
+        String next = null;
+        for (var entry : objects.entrySet()) {
+            var key = entry.getKey();
+            if (!key.startsWith(prefix) || request.continuationToken() != null && key.compareTo(request.continuationToken()) <= 0)
+                continue;
+            if (request.delimiter() != null && key.indexOf(request.delimiter(), prefix.length()) >= 0) {
+                commonPrefixes.add(key.substring(0, key.indexOf(request.delimiter(), prefix.length()) + request.delimiter().length()));
+                continue;
+            }
+            if (contents.size() == pageSize) {
+                next = contents.getLast().key();
+                break;
+            }
+            contents.add(S3Object.builder()
+                    .key(key)
+                    .size((long) entry.getValue().content().length)
+                    .eTag(entry.getValue().eTag())
+                    .lastModified(entry.getValue().lastModified())
+                    .build());
+        }
+        return ListObjectsV2Response.builder()
+                .contents(contents)
+                .commonPrefixes(commonPrefixes.stream().map(p -> CommonPrefix.builder().prefix(p).build()).toList())
+                .nextContinuationToken(next)
+                .build();
+    }
+
+    @SneakyThrows
+    @Override
+    public <ReturnT> ReturnT getObject(GetObjectRequest request, ResponseTransformer<GetObjectResponse, ReturnT> transformer) {
+        calls.add("GetObject");
+        var object = stored(request.bucket(), request.key());
+        var response = GetObjectResponse.builder()
+                .eTag(object.eTag())
+                .contentLength((long) object.content().length)
+                .build();
+        return transformer.transform(response, AbortableInputStream.create(new ByteArrayInputStream(object.content())));
+    }
+
+    @Override
+    public ResponseInputStream<GetObjectResponse> getObject(GetObjectRequest request) {
+        return getObject(request, ResponseTransformer.toInputStream());
+    }
+
+    @Override
+    public HeadObjectResponse headObject(HeadObjectRequest request) {
+        calls.add("HeadObject");
+        var object = stored(request.bucket(), request.key());
+        return HeadObjectResponse.builder()
+                .eTag(object.eTag())
+                .contentLength((long) object.content().length)
+                .checksumSHA256(request.checksumMode() == ChecksumMode.ENABLED ? object.checksumSha256() : null)
+                .build();
+    }
+
+    @SneakyThrows
+    @Override
+    public PutObjectResponse putObject(PutObjectRequest request, RequestBody body) {
+        calls.add("PutObject");
+        byte[] content;
+        try (var stream = body.contentStreamProvider().newStream()) {
+            content = stream.readAllBytes();
+        }
+        var object = new StoredObject(content, request.checksumSHA256(), Instant.now());
+        if ("*".equals(request.ifNoneMatch())) {
+            if (objects.putIfAbsent(request.key(), object) != null)
+                throw (S3Exception) S3Exception.builder().statusCode(412).message("PreconditionFailed " + request.key()).build();
+        } else {
+            objects.put(request.key(), object);
+        }
+        return PutObjectResponse.builder().eTag(object.eTag()).build();
+    }
+
+    @Override
+    public CopyObjectResponse copyObject(CopyObjectRequest request) {
+        calls.add("CopyObject");
+        var source = stored(request.sourceBucket(), request.sourceKey());
+        objects.put(request.destinationKey(), new StoredObject(source.content(), source.checksumSha256(), Instant.now()));
+        return CopyObjectResponse.builder().build();
+    }
+
+    @Override
+    public DeleteObjectsResponse deleteObjects(DeleteObjectsRequest request) {
+        calls.add("DeleteObjects");
+        request.delete().objects().forEach(identifier -> objects.remove(identifier.key()));
+        return DeleteObjectsResponse.builder().errors(List.of()).build();
+    }
+
+    @Override
+    public CreateMultipartUploadResponse createMultipartUpload(CreateMultipartUploadRequest request) {
+        calls.add("CreateMultipartUpload");
+        return CreateMultipartUploadResponse.builder().uploadId("upload-" + request.key()).build();
+    }
+
+    @Override
+    public AbortMultipartUploadResponse abortMultipartUpload(AbortMultipartUploadRequest request) {
+        calls.add("AbortMultipartUpload");
+        return AbortMultipartUploadResponse.builder().build();
+    }
+}